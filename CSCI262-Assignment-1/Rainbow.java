@@ -4,29 +4,110 @@
  * Program will prompt user for a valid 32 Hexadecimal value and then check
  * against the Rainbow table for its respective key/value to produce password(pre-image).
  * <p>
- * This program uses Java's Security Class MessageDigest to perform necessary hashing as required.
+ * The hash algorithm is chosen with --hash: MD5 (default), SHA-1 and SHA-256 are hashed through
+ * Java's Security Class MessageDigest, NTLM by a hand-unrolled MD4.
+ * Chains are built on raw digests; hexadecimal values are only produced for Rainbow.txt and user input.
  * <p>
  * Exit code 0: Program terminated by user
  * Exit code 1: invalid file extension
  * Exit code 2: invalid file content inside .txt file
+ * Exit code 3: binary table does not match the wordlist
+ * <p>
+ * Options (after the wordlist):
+ * --threads=N   build the rainbow table with N worker threads (default 1, serial build)
+ * --save=FILE   also write the rainbow table to FILE in the binary table format
+ * --load=FILE   memory-map a binary table written by --save instead of building one; FILE,FILE,... for shards
+ * --chain-length=T      number of passwords in each chain (default 5)
+ * --chains=M            stop the build after M chains (default: until every password is covered)
+ * --reduction=SCHEME    column (default): the reduction depends on the chain position,
+ *                       uniform: the same reduction at every position
+ * --batch=FILE          crack every hash in FILE ("-" for stdin) instead of prompting, see batch()
+ * --hash=ALGORITHM      md5 (default), sha1, sha256 or ntlm; a --load table uses the algorithm it was built with
+ * --perfect             keep one chain per final hash value, see EndpointSet
+ * --lanes=N             walk N md5 chains in lockstep per thread (default 1, scalar), see Md5Lanes
+ * --checkpoint=DIR      build incrementally in DIR and resume an interrupted build from it; a finished build is
+ *                       merged into the --save file (default DIR/rainbow.bin), which a rerun loads instead of
+ *                       building again, see Checkpoint
+ * --segment=N           chains per flushed segment with --checkpoint (default 1048576)
+ * --serve=PORT          serve lookups over HTTP on localhost:PORT instead of prompting, see Service
+ * --cache=N             keep the last N lookup results in an LRU cache (default 100000, 0: no cache), see ResultCache
+ * --filter-bits=B       Bloom filter over the final hash values with B bits per chain (default 10, 0: no filter),
+ *                       see EndpointFilter
+ * --progress=S          print a build progress line every S seconds (default 10, 0: none), see Metrics
+ * --shards=N            build N independent tables, each with its own reduction and --save file, and search
+ *                       them all at once, see Shard
+ * --compact=BITS        keep the table in memory compressed, with BITS bits of each final hash value after
+ *                       its bucket prefix (e.g. 32), see CompactIndex
+ * --rules=RULE,...      mangle the wordlist with case, leet and digits:N rules, see Rules
+ * --dp-bits=K           distinguished point table: chains end at the first hash whose top K bits are zero
+ *                       (K from 1 to 20), --chain-length is then the longest chain kept (default 8 * 2^K);
+ *                       implies --perfect and uniform reduction, see walkDistinguished
  */
 
+import com.sun.net.httpserver.*;
 import java.io.*;
+import java.lang.management.*;
+import java.net.*;
 import java.util.*;
 import java.security.*;
-import java.math.*;
+import javax.management.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
 
 public class Rainbow {
-    private static final ArrayList<String> passwordList = new ArrayList<>();
-    private static final HashMap<String, String> rainbowHash = new HashMap<>();
-    private static final LinkedHashMap<String, String> sortedRainbowHash = new LinkedHashMap<>();
+    private static final Wordlist passwordList = new Wordlist();
+    private static final HashAlgorithm[] algorithms = {new JcaHash("md5", "MD5", 16), new JcaHash("sha1", "SHA-1", 20), new JcaHash("sha256", "SHA-256", 32), new Ntlm()};
+    // Large enough for the longest digest in algorithms
+    private static final ThreadLocal<byte[]> digestBuffer = ThreadLocal.withInitial(() -> new byte[32]);
+    private static final ThreadLocal<Md5Lanes> md5Lanes = ThreadLocal.withInitial(() -> new Md5Lanes(Rainbow.lanes));
+    private static final LongAdder lookups = new LongAdder();
+    private static final LongAdder falseAlarms = new LongAdder();
+    private static final LongAccumulator maxFalseAlarms = new LongAccumulator(Math::max, 0);
+    private static final LongAdder filterRejects = new LongAdder();
+    private static final LongAdder filterChecks = new LongAdder();
     private static final Scanner kb = new Scanner(System.in);
+    private static final ThreadLocal<byte[]> candidateBuffer = ThreadLocal.withInitial(() -> new byte[64]);
+    // A chain averages 2^dpBits hashes, over a million past 20, and walkDistinguished keeps every index
+    private static final int MAX_DP_BITS = 20;
+    private static long twoTo64ModSize;
+    private static int keyspace;
+    private static Rules rules;
+    private static byte[] wordlistDigest;
+    private static Shard[] shards = new Shard[0];
+    private static int threads = 1;
+    private static int lanes = 1;
+    private static int chainLength = 5;
+    private static int maxChains = Integer.MAX_VALUE;
+    private static int reduction = MappedTable.REDUCTION_COLUMN;
+    private static HashAlgorithm algorithm = algorithms[0];
+    private static String saveFile;
+    private static String loadFile;
+    private static Checkpoint checkpoint;
+    private static EndpointSet endpoints;
+    private static ResultCache results;
+    private static int shardCount = 1;
+    private static int shard;
+    private static int compactBits;
+    private static int filterBits = 10;
+    private static int progressSeconds = 10;
+    private static int dpBits;
 
     /**
      * This method will initialise the start of the program.
      * It will check the text file and then process a rainbow table
      * Upon successful initialisation, it will generate a Rainbow.txt
      * and output the total number of passwords read in.
+     * If a binary table is given with --load, the table is memory-mapped instead of built.
+     * With --checkpoint, the build resumes from the checkpoint directory and the finished
+     * table is merged from its segments into a binary table, which is then memory-mapped.
+     * With --shards, the shards are built one after another, each into its own binary table
+     * with --save and its own checkpoint subdirectory with --checkpoint; --load takes a
+     * comma-separated list of shard tables. A shard written with --save is memory-mapped
+     * back from its file, so the heap holds the chains of one shard at a time.
      *
      * @param args cli argument to parse in file.
      */
@@ -37,92 +118,486 @@ public class Rainbow {
                 System.exit(1);
             }
             
-            FileReader file = new FileReader(args);
-            BufferedReader br = new BufferedReader(file);
-            String line = br.readLine();
+            MessageDigest md = MessageDigest.getInstance("MD5");
+
+            try (InputStream in = new FileInputStream(args)) {
+                passwordList.read(in, md);
+            }
             
-            if (line == null) {
+            if (passwordList.size() == 0) {
                 System.out.println("Process finished with exit code 2");
                 System.exit(2);
             }
-            passwordList.add(line);
-            
-            while (line != null) {
-                line = br.readLine();
-                if (line != null) passwordList.add(line);
-            }
 
-            br.close();
-            file.close();
+            // Tables built with other rules do not fit this keyspace
+            if (rules != null) md.update(rules.spec.getBytes());
+            wordlistDigest = md.digest();
+            loadPasswords();
+            if (rules != null) System.out.printf("Rules %s: %d variant(s) of %d password(s), a keyspace of %d candidate(s).%n",
+                    rules.spec, rules.count, passwordList.size(), keyspace);
 
-            int pos = passwordList.indexOf(passwordList.get(0));
-            boolean[] marked = new boolean[passwordList.size()];
-            boolean notAllMarked = true;
-            
-            Arrays.fill(marked, false);
+            if (loadFile != null) {
+                String[] files = loadFile.split(",");
+                shards = new Shard[files.length];
 
-            do {
-                int counter = 0;
-                if (!marked[pos] && pos < passwordList.size()) {
-                    String value = passwordList.get(pos), key = value, hex;
-                    marked[pos] = true;
-                    for (int i = 0; i < 4; i++) {
-                        hex = (hash(value));
-                        value = reduct(hex);
-                        marked[passwordList.indexOf(value)] = true;
+                for (int i = 0; i < files.length; i++) {
+                    MappedTable mappedTable = MappedTable.open(Paths.get(files[i]));
+
+                    if (!mappedTable.matches(wordlistDigest, keyspace)) {
+                        System.out.println(files[i] + " was not built from " + args);
+                        System.out.println("Process finished with exit code 3");
+                        System.exit(3);
+                    }
+                    if (i > 0 && (mappedTable.chainLength != chainLength || mappedTable.reduction != reduction
+                            || mappedTable.algorithm != algorithm || mappedTable.dpBits != dpBits)) {
+                        System.out.println(files[i] + " was built with other options than " + files[0]);
+                        System.out.println("Process finished with exit code 3");
+                        System.exit(3);
                     }
-                    hex = adjustHex(hash(value));
-                    rainbowHash.put(key, hex);
-                } else if (marked[pos] && pos < passwordList.size()) {
-                    pos++;
-                } else if (pos >= passwordList.size() - 1) {
-                    break;
+                    if (mappedTable.dpBits > 0) System.out.printf("Loaded %s: %d %s chain(s) of at most %d password(s) ending in %d-bit distinguished points, shard %d.%n",
+                            files[i], mappedTable.size(), mappedTable.algorithm.name(), mappedTable.chainLength, mappedTable.dpBits, mappedTable.shard);
+                    else System.out.printf("Loaded %s: %d %s chain(s) of length %d, shard %d.%n", files[i], mappedTable.size(), mappedTable.algorithm.name(),
+                            mappedTable.chainLength, mappedTable.shard);
+                    chainLength = mappedTable.chainLength;
+                    reduction = mappedTable.reduction;
+                    algorithm = mappedTable.algorithm;
+                    dpBits = mappedTable.dpBits;
+                    shards[i] = shard(mappedTable.shard, mappedTable);
                 }
-                
-                for (boolean bool : marked) if (bool) counter++;
+                return;
+            }
+
+            if (lanes > 1 && (algorithm != algorithms[0] || dpBits > 0)) {
+                System.out.println("--lanes is only supported for md5 chains of fixed length, building with scalar hashing.");
+                lanes = 1;
+            }
 
-                if (counter == marked.length) notAllMarked = false;
-                
-            } while (notAllMarked);
+            Checkpoint base = checkpoint;
 
-            genTxtFile(args);
+            for (shard = 0; shard < shardCount; shard++) {
+                if (shardCount > 1) System.out.printf("Building shard %d of %d.%n", shard + 1, shardCount);
+                if (base != null && shardCount > 1) checkpoint = new Checkpoint(base.dir.resolve("shard-" + shard), base.segment);
+                if (endpoints != null) endpoints = new EndpointSet();
+                ChainIndex table = buildShard(saveFile != null && shardCount > 1 ? shardFile(saveFile, shard) : saveFile);
 
+                shards = Arrays.copyOf(shards, shard + 1);
+                shards[shard] = new Shard(shard, table, null);
+            }
+            checkpoint = base;
+            genTxtFile(args);
+            // Rainbow.txt needs the full final hash values, so the shards are compacted afterwards
+            for (int i = 0; i < shards.length; i++) shards[i] = shard(i, shards[i].table);
         } catch (IOException | NoSuchAlgorithmException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * This method uses Java's Security Class Message Digest to
-     * perform necessary hashing as required from password to hexadecimal.
+     * This method builds the table of the current shard, resuming it from its checkpoint
+     * directory if one is given, and reports its coverage. A table whose checkpointed build
+     * has already been merged is not built again. A table written to a
+     * binary file, with --save or --checkpoint, is returned memory-mapped from that file.
      *
-     * @param password a String of password.
-     * @return positive String value of BigInteger in base 16.
-     * @throws NoSuchAlgorithmException if MD5 is not available inside this program.
-     */
-    private static String hash(String password) throws NoSuchAlgorithmException {
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        byte[] digest = md.digest(password.getBytes());
-        BigInteger bigInt = new BigInteger(1, digest);
-        
-        return bigInt.toString(16);
+     * @param save binary table file of the shard, or null.
+     * @return the table of the shard.
+     * @throws IOException if a checkpoint or binary table cannot be written.
+     */
+    private static ChainIndex buildShard(String save) throws IOException {
+        CoverageSet marked = new CoverageSet(keyspace);
+        ChainBuffer chains = new ChainBuffer();
+        Path path = checkpoint == null ? null : save != null ? Paths.get(save) : checkpoint.dir.resolve("rainbow.bin");
+        ChainIndex built;
+
+        // The merged table outlives the checkpoint, so a finished build, or shard, is kept
+        if (checkpoint != null && !checkpoint.exists() && Files.exists(path)) {
+            MappedTable done = MappedTable.open(path);
+
+            if (done.matches(wordlistDigest, keyspace) && done.shard == shard && done.chainLength == chainLength
+                    && done.reduction == reduction && done.algorithm == algorithm && done.dpBits == dpBits) {
+                if (shardCount > 1) System.out.printf("Shard %d is already built in %s, %d chain(s).%n", shard, path, done.size());
+                else System.out.printf("The table is already built in %s, %d chain(s).%n", path, done.size());
+                return done;
+            }
+        }
+        if (checkpoint != null && checkpoint.exists()) {
+            if (!checkpoint.resume(marked, chains)) {
+                System.out.println(checkpoint.dir + " holds a build of another wordlist or with other options");
+                System.out.println("Process finished with exit code 3");
+                System.exit(3);
+            }
+            System.out.printf("Resuming build at password %d of %d, %d chain(s) in %d segment(s).%n",
+                    checkpoint.next, keyspace, chains.count(), checkpoint.segments);
+        }
+
+        Metrics.startBuild(marked, chains, checkpoint == null ? 0 : checkpoint.next);
+        try {
+            if (threads > 1 || lanes > 1) buildParallel(marked, chains);
+            else buildSerial(marked, chains);
+        } finally {
+            Metrics.endBuild();
+        }
+
+        if (checkpoint != null) {
+            checkpoint.save(marked, chains, keyspace);
+            checkpoint.merge(path, chains.count());
+            built = MappedTable.open(path);
+        } else {
+            built = chains.toIndex();
+        }
+        System.out.printf("Chains cover %d of %d password(s).%n", marked.cardinality(), keyspace);
+        if (endpoints != null) System.out.printf("Perfect table: dropped %d of %d chain(s) ending in a stored final hash, a merge rate of %.2f%%.%n",
+                endpoints.merged, endpoints.merged + chains.count(), endpoints.merged * 100.0 / Math.max(1, endpoints.merged + chains.count()));
+        if (save != null && checkpoint == null) {
+            MappedTable.write(built, Paths.get(save));
+            built = MappedTable.open(Paths.get(save));
+        }
+        return built;
     }
 
     /**
-     * This method converts 32 hexadecimal value into a String then modded by
-     * size of passwordList arraylist.
+     * This method readies a table for lookups: it is compressed with --compact and gets an
+     * endpoint filter with --filter-bits.
      *
-     * @param hex a valid 32 hexadecimal value
-     * @return a password value from passwordList arraylist
+     * @param index shard index.
+     * @param table the table of the shard.
+     * @return the shard.
      */
-    private static String reduct(String hex) {
-        BigInteger bigint = new BigInteger(hex, 16);
-        
-        return passwordList.get((bigint.mod(BigInteger.valueOf(passwordList.size())).intValue()));
+    private static Shard shard(int index, ChainIndex table) {
+        if (compactBits > 0) {
+            CompactIndex compact = CompactIndex.of(table, compactBits, dpBits);
+
+            System.out.printf("Compacted %d chain(s) to %.2f bytes per chain.%n", compact.size(), compact.bytesPerChain());
+            table = compact;
+        }
+        return new Shard(index, table, EndpointFilter.of(table, filterBits));
+    }
+
+    /**
+     * @param save  --save file.
+     * @param shard shard index.
+     * @return the binary table file of a shard: the --save file name with the shard index before its extension.
+     */
+    private static String shardFile(String save, int shard) {
+        int dot = save.lastIndexOf('.');
+        return dot > save.lastIndexOf(File.separatorChar) ? save.substring(0, dot) + "-" + shard + save.substring(dot) : save + "-" + shard;
+    }
+
+    /**
+     * This method computes the keyspace, every rule variant of every passwordList entry,
+     * and the reduction constant for its size.
+     */
+    private static void loadPasswords() {
+        long size = (long) passwordList.size() * (rules == null ? 1 : rules.count);
+
+        if (size > Integer.MAX_VALUE) {
+            System.out.printf("A keyspace of %d candidate(s) is more than %d, use fewer --rules.%n", size, Integer.MAX_VALUE);
+            System.out.println("Process finished with exit code 2");
+            System.exit(2);
+        }
+        keyspace = (int) size;
+        twoTo64ModSize = (Long.remainderUnsigned(-1L, size) + 1) % size;
+    }
+
+    /**
+     * This method builds the chains one start point at a time in wordlist order.
+     * A start point is skipped if an earlier chain already passed through it, and a
+     * distinguished point chain that does not reach one is dropped.
+     * With --checkpoint, the build starts at the checkpointed start point and is checkpointed
+     * every time a segment of chains is complete.
+     *
+     * @param marked coverage of the passwordList.
+     * @param chains collects the finished chains.
+     * @throws IOException if a checkpoint cannot be written.
+     */
+    private static void buildSerial(CoverageSet marked, ChainBuffer chains) throws IOException {
+        for (int pos = checkpoint == null ? 0 : checkpoint.next; pos < keyspace && !marked.isFull() && chains.count() < maxChains; pos++) {
+            Metrics.position = pos;
+            if (marked.get(pos)) continue;
+            Chain chain = walkChain(pos);
+            if (chain != null) commitChain(chain, marked, chains);
+            if (checkpoint != null && chains.size >= checkpoint.segment) checkpoint.save(marked, chains, pos + 1);
+        }
+    }
+
+    /**
+     * This method builds the chains on a ForkJoinPool. Unmarked start points are taken in batches,
+     * every start point of the batch is walked in parallel, and the finished chains
+     * are then committed in wordlist order. A chain whose start point was marked by an earlier
+     * chain of the same batch is dropped, so the table is identical to the serial build.
+     * A distinguished point chain that ends without reaching one is dropped as well.
+     * With --lanes, the start points of a batch are walked in groups of lanes in lockstep.
+     * With --checkpoint, a checkpoint is taken after the batch that completes a segment.
+     *
+     * @param marked coverage of the passwordList.
+     * @param chains collects the finished chains.
+     * @throws IOException if a checkpoint cannot be written.
+     */
+    private static void buildParallel(CoverageSet marked, ChainBuffer chains) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        // Chains of a batch that run into each other are walked in vain, so a batch is kept to one group of lanes per thread
+        int[] starts = new int[threads * (lanes > 1 ? lanes : 256)];
+
+        try {
+            for (int pos = checkpoint == null ? 0 : checkpoint.next; pos < keyspace && !marked.isFull() && chains.count() < maxChains; ) {
+                int count = 0;
+                for (; pos < keyspace && count < starts.length; pos++) if (!marked.get(pos)) starts[count++] = pos;
+                Metrics.position = pos;
+
+                int batch = count;
+                Chain[] walked = pool.submit(() -> lanes > 1
+                        ? IntStream.range(0, (batch + lanes - 1) / lanes).parallel()
+                                .mapToObj(g -> walkLanes(starts, g * lanes, Math.min(batch, (g + 1) * lanes)))
+                                .flatMap(Arrays::stream)
+                                .toArray(Chain[]::new)
+                        : IntStream.range(0, batch).parallel()
+                                .mapToObj(i -> walkChain(starts[i]))
+                                .toArray(Chain[]::new)).get();
+
+                for (Chain chain : walked) {
+                    if (chain != null && !marked.get(chain.start) && chains.count() < maxChains) commitChain(chain, marked, chains);
+                }
+                if (checkpoint != null && chains.size >= checkpoint.segment) checkpoint.save(marked, chains, pos);
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * This method walks a single chain from a start point without touching any shared state:
+     * chainLength passwords, each hashed and reduced with the reduction of its position,
+     * except the last whose hash is the final hash value.
+     *
+     * @param start index of the start point inside passwordList.
+     * @return the chain with every index it passes through and its final hash,
+     * or null for a distinguished point chain that does not reach one.
+     */
+    private static Chain walkChain(int start) {
+        if (dpBits > 0) return walkDistinguished(start);
+        byte[] digest = digestBuffer.get();
+        int[] visited = new int[chainLength];
+
+        visited[0] = start;
+        for (int i = 0; i < chainLength - 1; i++) {
+            hash(visited[i], digest);
+            visited[i + 1] = reduce(digest, i, shard);
+        }
+        hash(visited[chainLength - 1], digest);
+        Metrics.chainsWalked.increment();
+        Metrics.buildHashes.add(chainLength);
+        return new Chain(start, visited, getLong(digest, 0), getLong(digest, 8));
+    }
+
+    /**
+     * This method walks a distinguished point chain from a start point: hash and reduce until
+     * the hash is a distinguished point, which becomes the final hash value. A chain that has
+     * not reached one after chainLength passwords is given up. There is no separate loop check:
+     * a chain caught in a loop never reaches a distinguished point, so it is given up the same way.
+     * <p>
+     * The reduction does not depend on the chain position (--dp-bits implies the uniform
+     * scheme), so a lookup can walk forward from the target hash without knowing its position
+     * and reaches the same distinguished point as the chain holding it: one index probe and
+     * at most chainLength hashes, instead of one probe and up to chainLength hashes per position.
+     * Chains that merge run into the same distinguished point, so the table keeps one chain
+     * per distinguished point like a perfect table; the merge is detected where it happens
+     * instead of surfacing as false alarms at lookup time.
+     *
+     * @param start index of the start point inside passwordList.
+     * @return the chain, or null if it does not end in a distinguished point.
+     */
+    private static Chain walkDistinguished(int start) {
+        byte[] digest = digestBuffer.get();
+        int[] visited = new int[Math.min(chainLength, 64)];
+        int index = start;
+
+        Metrics.chainsWalked.increment();
+        for (int i = 0; i < chainLength; i++) {
+            if (i == visited.length) visited = Arrays.copyOf(visited, Math.min(chainLength, i * 2));
+            visited[i] = index;
+            hash(index, digest);
+            Metrics.buildHashes.increment();
+
+            long hi = getLong(digest, 0);
+            if (distinguished(hi)) return new Chain(start, Arrays.copyOf(visited, i + 1), hi, getLong(digest, 8));
+            if (i < chainLength - 1) index = reduce(digest, i, shard);
+        }
+        return null;
+    }
+
+    /**
+     * @param hi first 8 bytes of a digest.
+     * @return true if the top dpBits bits of the digest are zero.
+     */
+    private static boolean distinguished(long hi) {
+        return hi >>> (64 - dpBits) == 0;
+    }
+
+    /**
+     * This method walks the chains of a run of start points in lockstep with the md5 lane engine,
+     * one lane per start point. The chains are the same as walkChain's.
+     *
+     * @param starts start points.
+     * @param from   first start point to walk, inclusive.
+     * @param to     last start point to walk, exclusive; at most lanes after from.
+     * @return a chain per start point.
+     */
+    private static Chain[] walkLanes(int[] starts, int from, int to) {
+        Md5Lanes engine = md5Lanes.get();
+        if (engine.lanes != lanes) md5Lanes.set(engine = new Md5Lanes(lanes));
+        int count = to - from;
+        Chain[] walked = new Chain[count];
+        int[] current = Arrays.copyOfRange(starts, from, to);
+        int[][] visited = new int[count][chainLength];
+
+        for (int lane = 0; lane < count; lane++) visited[lane][0] = current[lane];
+        for (int i = 0; i < chainLength; i++) {
+            engine.hash(current, count);
+            if (i == chainLength - 1) break;
+            for (int lane = 0; lane < count; lane++)
+                visited[lane][i + 1] = current[lane] = reduce(engine.hi[lane], engine.lo[lane], i, shard);
+        }
+
+        for (int lane = 0; lane < count; lane++)
+            walked[lane] = new Chain(visited[lane][0], visited[lane], engine.hi[lane], engine.lo[lane]);
+        Metrics.chainsWalked.add(count);
+        Metrics.buildHashes.add((long) count * chainLength);
+        return walked;
+    }
+
+    /**
+     * This method marks every index of a chain and stores its final hash in the rainbow table.
+     * In a perfect table, a chain ending in a final hash that is already stored merged into a
+     * stored chain; it is dropped and its passwords are left unmarked for later start points.
+     *
+     * @param chain  a finished chain.
+     * @param marked coverage of the passwordList.
+     * @param chains collects the finished chains.
+     */
+    private static void commitChain(Chain chain, CoverageSet marked, ChainBuffer chains) {
+        if (endpoints != null && !endpoints.add(chain.hi, chain.lo)) return;
+        for (int index : chain.visited) marked.set(index);
+        chains.add(chain.hi, chain.lo, chain.start);
+    }
+
+    /**
+     * This method hashes a keyspace candidate into a caller supplied buffer with the selected
+     * hash algorithm. Without --rules it hashes the passwordList entry in place, straight from
+     * the wordlist bytes; with rules the candidate is first built in a per-thread buffer.
+     *
+     * @param index  index into the keyspace, see candidate.
+     * @param digest buffer receiving the digest, at least as long as the algorithm's digest.
+     */
+    private static void hash(int index, byte[] digest) {
+        if (rules == null) {
+            algorithm.hash(passwordList.bytes, passwordList.offset(index), passwordList.length(index), digest);
+            return;
+        }
+        byte[] buffer = candidateBuffer(index);
+        algorithm.hash(buffer, 0, candidate(index, buffer), digest);
+    }
+
+    /**
+     * This method builds a keyspace candidate: index = variant * passwordList size + word, so
+     * variant 0 (no rule) is the plain wordlist, in wordlist order, and any index maps to its
+     * candidate with a division instead of a lookup in an expanded list.
+     *
+     * @param index  index into the keyspace.
+     * @param buffer receives the candidate bytes, see candidateBuffer.
+     * @return the length of the candidate.
+     */
+    private static int candidate(int index, byte[] buffer) {
+        int words = passwordList.size(), word = index % words;
+        return rules.apply(index / words, passwordList.bytes, passwordList.offset(word), passwordList.length(word), buffer);
+    }
+
+    /**
+     * @param index index into the keyspace.
+     * @return this thread's candidate buffer, grown to hold the candidate if needed.
+     */
+    private static byte[] candidateBuffer(int index) {
+        byte[] buffer = candidateBuffer.get();
+        int length = passwordList.length(index % passwordList.size()) + rules.growth;
+
+        if (buffer.length < length) candidateBuffer.set(buffer = new byte[Math.max(length, buffer.length * 2)]);
+        return buffer;
+    }
+
+    /**
+     * @param index index into the keyspace.
+     * @return the candidate as a String.
+     */
+    private static String password(int index) {
+        if (rules == null) return passwordList.get(index);
+        byte[] buffer = candidateBuffer(index);
+        return new String(buffer, 0, candidate(index, buffer), java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    /**
+     * This method looks a hash algorithm up by its --hash name.
+     *
+     * @param name algorithm name.
+     * @return the hash algorithm.
+     */
+    private static HashAlgorithm algorithm(String name) {
+        for (HashAlgorithm candidate : algorithms) if (candidate.name().equals(name)) return candidate;
+        throw new IllegalArgumentException("unknown hash algorithm: " + name);
+    }
+
+    private static int algorithmId(HashAlgorithm candidate) {
+        return Arrays.asList(algorithms).indexOf(candidate);
+    }
+
+    /**
+     * This method reads the first 16 bytes of a digest as an unsigned 128 bit big-endian number and mods it
+     * by size of passwordList arraylist, the same value as BigInteger(1, digest).mod(size) for MD5.
+     *
+     * @param digest a digest of at least 16 bytes
+     * @param column position of the hash inside its chain
+     * @param shard  shard of the chain
+     * @return an index into passwordList arraylist
+     */
+    private static int reduce(byte[] digest, int column, int shard) {
+        return reduce(getLong(digest, 0), getLong(digest, 8), column, shard);
+    }
+
+    /**
+     * This method computes (hi * 2^64 + lo) mod size of passwordList arraylist.
+     * Both remainders are below 2^31, so the sum of products cannot overflow.
+     * With the column reduction scheme the column is XORed into the digest first, so every
+     * chain position has its own reduction and two chains only merge if they collide
+     * at the same position. Every shard XORs its own constant into the digest, so the shards
+     * are independent tables whose chains do not merge with each other; shard 0 is unchanged.
+     *
+     * @param hi     first 8 bytes of the digest
+     * @param lo     last 8 bytes of the digest
+     * @param column position of the hash inside its chain
+     * @param shard  shard of the chain
+     * @return an index into passwordList arraylist
+     */
+    private static int reduce(long hi, long lo, int column, int shard) {
+        long size = keyspace;
+
+        if (reduction == MappedTable.REDUCTION_COLUMN) lo ^= column;
+        hi ^= shard * 0x9E3779B97F4A7C15L;
+
+        return (int) ((Long.remainderUnsigned(hi, size) * twoTo64ModSize + Long.remainderUnsigned(lo, size)) % size);
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) value = (value << 8) | (bytes[offset + i] & 0xFF);
+        return value;
+    }
+
+    private static String toHex(long hi, long lo) {
+        return String.format("%016x%016x", hi, lo);
     }
 
     /**
      * This method generates a text file at /Desktop/Rainbow.txt.
+     * Final hash values are written as their first 16 bytes, the part the table is keyed on.
      *
      * @param args cli argument to parse in file.
      * @throws IOException IO error
@@ -133,54 +608,42 @@ public class Rainbow {
         File desktop = new File(System.getProperty("user.home"), "/Desktop/Rainbow.txt");
         BufferedWriter bw = new BufferedWriter(new FileWriter(desktop));
         
-        rainbowHash.entrySet().stream().sorted(Map.Entry.comparingByValue()).forEachOrdered(x -> sortedRainbowHash.put(x.getKey(), x.getValue()));
         bw.write("Plaintext\t: Final current hash value\n==================================================\n");
         
-        for (Map.Entry<String, String> entry : sortedRainbowHash.entrySet())
-            bw.write(String.format("%-15s : %s%n", entry.getKey(), entry.getValue()));
+        for (Shard shard : shards) {
+            ChainIndex table = shard.table;
+            for (long i = 0; i < table.size(); i++)
+                bw.write(String.format("%-15s : %s%n", password(table.start(i)), toHex(table.endpointHi(i), table.endpointLo(i))));
+        }
         
         bw.flush();
         bw.close();
         
         System.out.printf("%s contains %d password(s).%nGenerated Rainbow.txt at /Desktop/Rainbow.txt%n", args, passwordList.size());
-        System.out.print("Rainbow.txt contains: " + sortedRainbowHash.size() + " number of lines.");
+        System.out.print("Rainbow.txt contains: " + chainCount() + " number of lines.");
         System.out.println("\n==============================================================");
     }
 
     /**
-     * This method ensures that all hashed value from hash(String password)
-     * returns a 32 character long hexadecimal value.
-     *
-     * @param hex a valid hexadecimal value
-     * @return a 32 character long hexadecimal value
+     * @return the number of chains in every shard.
      */
-    private static String adjustHex(String hex) {
-        if (hex.length() < 32 && hex.length() != 31) {
-            int padding = 32 - hex.length();
-            
-            for (int j = 0; j < padding; j++) 
-                hex = "0" + hex;
-
-        }
-        if (hex.length() == 31) hex = "0" + hex;
-        return hex;
+    private static long chainCount() {
+        long count = 0;
+        for (Shard shard : shards) count += shard.table.size();
+        return count;
     }
 
     /**
-     * This method will prompt user for a 32 hex long value and perform the necessary steps required to produce
-     * the password iff the password exist inside Rainbow Table
-     *
-     * @throws NoSuchAlgorithmException if MD5 is not available inside this program.
+     * This method will prompt user for a hex value of the algorithm's digest length (32 for MD5) and perform
+     * the necessary steps required to produce the password iff the password exist inside Rainbow Table
      */
-    private static void attack() throws NoSuchAlgorithmException {
-        boolean insideRT = false;
-
-        System.out.print("Enter a 32 hexadecimal value: ");
+    private static void attack() {
+        System.out.printf("Enter a %d hexadecimal value: ", algorithm.length() * 2);
         
-        String inputHex = kb.nextLine(), valueInRT = "";
+        String inputHex = kb.nextLine();
 
         while (!hexCheck(inputHex)) {
-            System.out.print("INVALID HEX VALUE!\nEnter \"QUIT\" to exit(0) the program.\n\nEnter a proper 32 hexadecimal value: ");
+            System.out.printf("INVALID HEX VALUE!%nEnter \"QUIT\" to exit(0) the program.%n%nEnter a proper %d hexadecimal value: ", algorithm.length() * 2);
             inputHex = kb.nextLine();
 
             if (inputHex.equalsIgnoreCase("quit")) {
@@ -189,139 +652,340 @@ public class Rainbow {
             }
         }
 
-        if (hexCheck(inputHex)) {
-            for (Map.Entry<String, String> entry : sortedRainbowHash.entrySet()) {
-                if (entry.getValue().equals(inputHex)) {
-                    valueInRT = entry.getKey();
-                    insideRT = true;
-                    break;
-                }
+        long alarms = falseAlarms.sum();
+        String password = lookup(inputHex);
+
+        if (password != null) System.out.println("Password: " + password);
+        else System.out.println("Unable to find password");
+        System.out.println("False alarm(s): " + (falseAlarms.sum() - alarms));
+    }
+
+    /**
+     * This method looks a hash up through the result cache, so a repeated hash is answered
+     * without walking any chain. Misses are cached too.
+     *
+     * @param inputHex a valid hexadecimal value, see hexCheck.
+     * @return the password, or null if it is not inside the rainbow table.
+     */
+    private static String lookup(String inputHex) {
+        if (results == null) return crack(inputHex);
+
+        String key = inputHex.toLowerCase();
+        Optional<String> result = results.get(key);
+
+        if (result == null) {
+            result = Optional.ofNullable(crack(key));
+            results.put(key, result);
+        }
+        return result.orElse(null);
+    }
+
+    /**
+     * This method looks a hash up in the rainbow table. A sharded table is searched in every
+     * shard at once on the common ForkJoinPool (or the batch pool), and the first shard to find
+     * the password answers; each search is a backward search: it assumes
+     * the hash sits at the last chain position, then the one before, and so on. For a guessed
+     * position it applies the remaining reductions and hashes of a chain and looks the result
+     * up as a final hash value.
+     * <p>
+     * Every chain ending in that final hash value is a candidate. A candidate that does not
+     * contain the hash at the guessed position is a false alarm (chains merged or the guess
+     * was wrong), and the search moves on to the next candidate or position, so a false
+     * alarm costs one chain walk instead of a walk of the whole table.
+     * <p>
+     * Reductions and final hash values use the first 16 bytes of a digest; a candidate is
+     * only accepted if its full digest matches. A final hash value the endpoint filter rules
+     * out is not searched for in the table at all.
+     * <p>
+     * In a distinguished point table there is a single guess: the target is walked forward to
+     * its distinguished point, which is looked up once, and each candidate chain is walked
+     * from its start point until it produces the target or ends.
+     *
+     * @param inputHex a valid hexadecimal value, see hexCheck.
+     * @return the password, or null if it is not inside the rainbow table.
+     */
+    private static String crack(String inputHex) {
+        byte[] target = new byte[algorithm.length()];
+        for (int i = 0; i < target.length; i++)
+            target[i] = (byte) (Character.digit(inputHex.charAt(2 * i), 16) << 4 | Character.digit(inputHex.charAt(2 * i + 1), 16));
+        // False alarms and hash operations per shard, each written by its own search
+        long[][] counts = new long[shards.length][2];
+        long time = System.nanoTime();
+
+        lookups.increment();
+        try {
+            if (shards.length == 1) return search(shards[0], target, counts[0]);
+            return IntStream.range(0, shards.length).parallel()
+                    .mapToObj(i -> search(shards[i], target, counts[i]))
+                    .filter(Objects::nonNull)
+                    .findAny().orElse(null);
+        } finally {
+            long alarms = 0, hashes = 0;
+            for (long[] count : counts) {
+                alarms += count[0];
+                hashes += count[1];
             }
+            falseAlarms.add(alarms);
+            maxFalseAlarms.accumulate(alarms);
+            Metrics.lookup(hashes, System.nanoTime() - time);
         }
+    }
 
-        if (!insideRT) {
-            String value, hex = inputHex, possibleValueInRT = "";
-            boolean possibleInRT = false;
-            
-            value = reduct(hex);
-            hex = hash(value);
-
-            for (int i = 0; i <= 5; i++) {
-                for (Map.Entry<String, String> entry : sortedRainbowHash.entrySet()) {
-                    if (entry.getValue().equals(hex)) {
-                        possibleValueInRT = entry.getKey();
-                        possibleInRT = true;
-                        break;
-                    }
+    /**
+     * This method searches one shard for a target digest, see crack.
+     *
+     * @param shard  the shard to search.
+     * @param target the target digest.
+     * @param counts receives the false alarms and hash operations of the search.
+     * @return the password, or null if it is not inside the shard.
+     */
+    private static String search(Shard shard, byte[] target, long[] counts) {
+        ChainIndex table = shard.table;
+        EndpointFilter filter = shard.filter;
+        long targetHi = getLong(target, 0), targetLo = getLong(target, 8);
+        byte[] digest = digestBuffer.get();
+        long alarms = 0, hashes = 0;
+
+        try {
+            if (dpBits > 0) {
+                long hi = targetHi, lo = targetLo;
+
+                for (int steps = 0; !distinguished(hi); steps++) {
+                    // Chains are at most chainLength passwords, so the target is at most chainLength - 1 steps before their end
+                    if (steps == chainLength - 1) return null;
+                    hash(reduce(hi, lo, 0, shard.index), digest);
+                    hashes++;
+                    hi = getLong(digest, 0);
+                    lo = getLong(digest, 8);
+                }
+
+                hi &= table.hiMask();
+                lo &= table.loMask();
+                if (filter != null) filterChecks.increment();
+                if (filter != null && !filter.mightContain(hi, lo)) {
+                    filterRejects.increment();
+                    return null;
                 }
+                for (long record = table.find(hi, lo); record >= 0 && record < table.size()
+                        && table.endpointHi(record) == hi && table.endpointLo(record) == lo; record++) {
+                    int index = table.start(record);
 
-                if (possibleInRT) break;
-                
-                value = reduct(hex);
-                hex = hash(value);
+                    for (int i = 0; i < chainLength; i++) {
+                        hash(index, digest);
+                        hashes++;
+                        if (matches(digest, target)) return password(index);
+                        if (distinguished(getLong(digest, 0))) break;
+                        index = reduce(digest, i, shard.index);
+                    }
+                    alarms++;
+                }
+                return null;
             }
 
-            if (possibleInRT) getPassword(possibleValueInRT, inputHex);
-            if (!possibleInRT) System.out.println("Unable to find password");
+            for (int column = chainLength - 1; column >= 0; column--) {
+                long hi = targetHi, lo = targetLo;
+                hashes += chainLength - 1 - column;
+
+                for (int i = column; i < chainLength - 1; i++) {
+                    hash(reduce(hi, lo, i, shard.index), digest);
+                    hi = getLong(digest, 0);
+                    lo = getLong(digest, 8);
+                }
+
+                hi &= table.hiMask();
+                lo &= table.loMask();
+                if (filter != null) filterChecks.increment();
+                if (filter != null && !filter.mightContain(hi, lo)) {
+                    filterRejects.increment();
+                    continue;
+                }
+                for (long record = table.find(hi, lo); record >= 0 && record < table.size()
+                        && table.endpointHi(record) == hi && table.endpointLo(record) == lo; record++) {
+                    String password = getPassword(table.start(record), column, target, shard.index);
+                    hashes += column + 1;
+
+                    if (password != null) return password;
+                    alarms++;
+                }
+            }
+            return null;
+        } finally {
+            counts[0] = alarms;
+            counts[1] = hashes;
         }
-        if (insideRT) getPassword(valueInRT, inputHex);
     }
 
     /**
-     * This method will perform the hashing and reduction required to produce the password to the user.
-     * @param valueInRT a value that happens to reside somewhere inside the rainbow table.
-     * @param inputHex user input hex value.
-     * @throws NoSuchAlgorithmException if MD5 is not available inside this program.
+     * This method cracks a list of hashes without prompting. Hashes are read one per line from a file
+     * or stdin, duplicates and invalid lines are skipped, and the rest are looked up in parallel against
+     * the shared, read-only rainbow table in blocks, so the input is never held in memory at once.
+     * Every unique hash gets a "hash&lt;TAB&gt;password" or "hash&lt;TAB&gt;NOTFOUND" line, in input order,
+     * followed by a summary of throughput and hit rate on stderr.
+     *
+     * @param source  file of hashes, or "-" for stdin.
+     * @param results where the result lines are written, flushed once per block.
+     * @param workers number of lookup threads.
      */
-    private static void getPassword(String valueInRT, String inputHex) throws NoSuchAlgorithmException {
-        boolean foundPasswordInsideRT = false;
-        String tempValue = valueInRT;
+    private static void batch(String source, PrintStream results, int workers) {
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        HashSet<String> seen = new HashSet<>();
+        List<String> block = new ArrayList<>();
+        long unique = 0, found = 0, duplicates = 0, invalid = 0;
+        long time = System.nanoTime();
 
-        // There are 5 words in each chain hence need check 5 times
-        for (int i = 0; i < 5; i++) {
-            String hex = hash(valueInRT);
-            
-            hex = adjustHex(hex);
-            
-            if (hex.equals(inputHex)) {
-                System.out.println("Password: " + valueInRT);
-                foundPasswordInsideRT = true;
-                break;
-            }
-
-            valueInRT = reduct(hex);
-        }
-
-        if (!foundPasswordInsideRT) {
-            Set<String> sortedRainbowHashKeySet = sortedRainbowHash.keySet();
-            List<String> sortedRainbowHashKeyList = new ArrayList<>(sortedRainbowHashKeySet);
-            int startIndex = 0;
-            int index = sortedRainbowHashKeyList.indexOf(tempValue) + 1;
-            int controlIndex = index;
-            boolean foundPassword = false;
-
-            while (index < sortedRainbowHashKeyList.size()) {
-                String possVal = sortedRainbowHashKeyList.get(index), possHex;
-
-                for (int i = 0; i < 5; i++) {
-                    possHex = hash(possVal);
-                    possHex = adjustHex(possHex);
-                    
-                    if (possHex.equals(inputHex)) {
-                        foundPassword = true;
-                        System.out.println("Password: " + possVal);
-                        break;
-                    } else {
-                        possVal = reduct(possHex);
-                    }
-                }
-                
-                index++;
-                
-                if (foundPassword) break;
-            }
-
-            while (!foundPassword && startIndex < controlIndex) {
-                String possVal = sortedRainbowHashKeyList.get(startIndex), possHex;
-
-                for (int i = 0; i < 5; i++) {
-                    possHex = hash(possVal);
-                    possHex = adjustHex(possHex);
-                    
-                    if (possHex.equals(inputHex)) {
-                        foundPassword = true;
-                        System.out.println("Password: " + possVal);
-                        break;
-                    } else {
-                        possVal = reduct(possHex);
+        try (BufferedReader br = new BufferedReader(source.equals("-") ? new InputStreamReader(System.in) : new FileReader(source))) {
+            String line = br.readLine();
+
+            while (line != null) {
+                String inputHex = line.trim().toLowerCase();
+                line = br.readLine();
+
+                if (inputHex.isEmpty()) continue;
+                if (!hexCheck(inputHex)) invalid++;
+                else if (!seen.add(inputHex)) duplicates++;
+                else block.add(inputHex);
+
+                if (block.size() == 4096 || (line == null && !block.isEmpty())) {
+                    List<String> hashes = block;
+                    String[] passwords = pool.submit(() -> hashes.parallelStream().map(Rainbow::crack).toArray(String[]::new)).get();
+
+                    for (int i = 0; i < passwords.length; i++) {
+                        results.println(hashes.get(i) + "\t" + (passwords[i] != null ? passwords[i] : "NOTFOUND"));
+                        if (passwords[i] != null) found++;
                     }
+                    results.flush();
+                    unique += passwords.length;
+                    block = new ArrayList<>();
                 }
-                startIndex++;
-                if (foundPassword) break;
             }
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        } finally {
+            pool.shutdown();
+            results.flush();
+        }
+
+        double seconds = (System.nanoTime() - time) / 1e9;
+        System.err.printf("Cracked %d of %d unique hash(es) (%.2f%%) in %.2f s, %.0f hashes/s with %d thread(s).%n",
+                found, unique, unique == 0 ? 0.0 : found * 100.0 / unique, seconds, unique / seconds, workers);
+        System.err.printf("Skipped %d duplicate(s) and %d invalid line(s).%n", duplicates, invalid);
+        System.err.printf("False alarms: %d, %.2f per query, at most %d in one query.%n",
+                falseAlarms.sum(), unique == 0 ? 0.0 : (double) falseAlarms.sum() / unique, maxFalseAlarms.get());
+        if (filterBits > 0) System.err.printf("Endpoint filter skipped %d of %d table search(es).%n", filterRejects.sum(), filterChecks.sum());
+        System.err.printf("Hash operations: %.1f per query; latency p50 < %d us, p99 < %d us.%n",
+                unique == 0 ? 0.0 : (double) Metrics.lookupHashes.sum() / unique, Metrics.latencyPercentile(0.5), Metrics.latencyPercentile(0.99));
+    }
+
+    /**
+     * This method will perform the hashing and reduction required to produce the password to the user:
+     * it rebuilds a candidate chain from its start point up to the guessed position and checks that
+     * the password there hashes to the target.
+     *
+     * @param start  index of the chain's start point inside passwordList.
+     * @param column guessed position of the target hash inside the chain.
+     * @param target the target digest.
+     * @param shard  shard of the chain.
+     * @return the password, or null if the chain does not contain the target hash at that position.
+     */
+    private static String getPassword(int start, int column, byte[] target, int shard) {
+        byte[] digest = digestBuffer.get();
+        int index = start;
+
+        for (int i = 0; i < column; i++) {
+            hash(index, digest);
+            index = reduce(digest, i, shard);
+        }
+        hash(index, digest);
+
+        return matches(digest, target) ? password(index) : null;
+    }
+
+    /**
+     * This method checks whether a digest buffer starts with the target hash value. The buffer
+     * can be longer than the target, which is as long as the hash algorithm's digest.
+     *
+     * @param digest digest buffer.
+     * @param target target hash value.
+     * @return true if the first target.length bytes of digest equal target.
+     */
+    private static boolean matches(byte[] digest, byte[] target) {
+        for (int i = 0; i < target.length; i++) {
+            if (digest[i] != target[i]) return false;
         }
+        return true;
     }
 
     /**
      * This method will ensure that user input value of a hexadecimal value is
-     * valid and of 32 length.
+     * valid and of the selected algorithm's length (32 for MD5, 40 for SHA-1, 64 for SHA-256, 32 for NTLM).
      *
      * @param inputHex user input hexadecimal value
-     * @return true iff hexadecimal value is valid and of 32 length.
+     * @return true iff hexadecimal value is valid and of the algorithm's length.
      */
     private static boolean hexCheck(String inputHex) {
-        if (inputHex.matches("([\\d]{32})|([a-zA-Z]{32})|\\Q.\\E") || inputHex.length() < 32) {
-            return false;
-        } else return inputHex.matches("^[A-Fa-f0-9]{32}+$");
+        int length = algorithm.length() * 2, digits = 0;
+
+        if (inputHex.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            char c = inputHex.charAt(i);
+
+            if (c >= '0' && c <= '9') digits++;
+            else if ((c < 'a' || c > 'f') && (c < 'A' || c > 'F')) return false;
+        }
+        // All digits or all letters is rejected as not looking like a hash
+        return digits != 0 && digits != length;
     }
 
     /**
      * Main method. It will prompt user for continuous input of 32 hexadecimal value.
      *
      * @param args reads in cli argument which is later parsed into init(args[0])
-     * @throws NoSuchAlgorithmException if MD5 is not available inside this program.
      */
-    public static void main(String[] args) throws NoSuchAlgorithmException {
+    public static void main(String[] args) {
+        threads = Integer.parseInt(option(args, "--threads", "1"));
+        lanes = Integer.parseInt(option(args, "--lanes", "1"));
+        dpBits = Integer.parseInt(option(args, "--dp-bits", "0"));
+        if (dpBits < 0 || dpBits > MAX_DP_BITS)
+            throw new IllegalArgumentException("--dp-bits must be from 1 to " + MAX_DP_BITS + ": " + dpBits);
+        shardCount = Integer.parseInt(option(args, "--shards", "1"));
+        compactBits = Integer.parseInt(option(args, "--compact", "0"));
+        String ruleSpec = option(args, "--rules", null);
+        if (ruleSpec != null) rules = Rules.parse(ruleSpec);
+        chainLength = Integer.parseInt(option(args, "--chain-length", dpBits > 0 ? String.valueOf(Math.min(8L << dpBits, Integer.MAX_VALUE - 8)) : "5"));
+        maxChains = Integer.parseInt(option(args, "--chains", String.valueOf(Integer.MAX_VALUE)));
+        reduction = option(args, "--reduction", "column").equals("uniform") || dpBits > 0 ? MappedTable.REDUCTION_UNIFORM : MappedTable.REDUCTION_COLUMN;
+        saveFile = option(args, "--save", null);
+        loadFile = option(args, "--load", null);
+        algorithm = algorithm(option(args, "--hash", "md5"));
+        filterBits = Integer.parseInt(option(args, "--filter-bits", "10"));
+        progressSeconds = Integer.parseInt(option(args, "--progress", "10"));
+        int cacheSize = Integer.parseInt(option(args, "--cache", "100000"));
+        if (cacheSize > 0) results = new ResultCache(cacheSize);
+        String checkpointDir = option(args, "--checkpoint", null);
+        // Merged distinguished point chains end in the same point, and one of them is enough
+        if (Arrays.asList(args).contains("--perfect") || dpBits > 0) endpoints = new EndpointSet();
+        if (checkpointDir != null) checkpoint = new Checkpoint(Paths.get(checkpointDir), Integer.parseInt(option(args, "--segment", "1048576")));
+        String batchFile = option(args, "--batch", null);
+        String port = option(args, "--serve", null);
+        Metrics.register();
+
+        if (port != null) {
+            init(args[0]);
+            if (shards.length == 0) System.exit(1);
+            Service.run(Integer.parseInt(port));
+            return;
+        }
+
+        if (batchFile != null) {
+            // Keep stdout for results only, buffered: batch flushes it once per block
+            PrintStream output = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+            System.setOut(System.err);
+            init(args[0]);
+            if (shards.length == 0) System.exit(1);
+            batch(batchFile, output, Integer.parseInt(option(args, "--threads", String.valueOf(Runtime.getRuntime().availableProcessors()))));
+            return;
+        }
+
         init(args[0]);
         String resume;
         do {
@@ -332,4 +996,2045 @@ public class Rainbow {
         } while (resume.equalsIgnoreCase("y"));
         System.out.println("Program terminated.");
     }
+
+    /**
+     * This method returns the value of a "--name=value" cli option.
+     *
+     * @param args         cli arguments.
+     * @param name         option name including the leading dashes.
+     * @param defaultValue value returned if the option is absent.
+     * @return the option value.
+     */
+    private static String option(String[] args, String name, String defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(name + "=")) return arg.substring(name.length() + 1);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * A hash algorithm the rainbow table can be built for, selected with --hash.
+     * One instance is shared by every build and lookup thread, so implementations keep
+     * any scratch state per thread.
+     */
+    private interface HashAlgorithm {
+        /**
+         * @return the --hash name of the algorithm.
+         */
+        String name();
+
+        /**
+         * @return the digest length in bytes, at least 16.
+         */
+        int length();
+
+        /**
+         * This method hashes a password into the first length() bytes of digest.
+         *
+         * @param password buffer holding the password bytes.
+         * @param offset   first password byte.
+         * @param length   number of password bytes.
+         * @param digest   buffer receiving the digest.
+         */
+        void hash(byte[] password, int offset, int length, byte[] digest);
+    }
+
+    /**
+     * A hash algorithm provided by Java's Security Class MessageDigest, one instance per thread.
+     * The JDK's MD5, SHA-1 and SHA-256 are backed by CPU intrinsics where available.
+     */
+    private static final class JcaHash implements HashAlgorithm {
+        private final String name;
+        private final int length;
+        private final ThreadLocal<MessageDigest> md;
+
+        private JcaHash(String name, String jcaName, int length) {
+            this.name = name;
+            this.length = length;
+            this.md = ThreadLocal.withInitial(() -> {
+                try {
+                    return MessageDigest.getInstance(jcaName);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public void hash(byte[] password, int offset, int length, byte[] digest) {
+            MessageDigest md = this.md.get();
+
+            md.update(password, offset, length);
+            try {
+                md.digest(digest, 0, this.length);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * NTLM: MD4 (RFC 1320) of the UTF-16LE encoded password. The JDK has no MD4 MessageDigest,
+     * so MD4 is implemented here with its 48 steps unrolled. Passwords are short, so most hashes
+     * are a single compression on a per-thread block, with no allocation and no MessageDigest
+     * state to reset. ASCII passwords are widened into a per-thread buffer; other passwords are re-encoded.
+     */
+    private static final class Ntlm implements HashAlgorithm {
+        private final ThreadLocal<byte[]> utf16 = ThreadLocal.withInitial(() -> new byte[128]);
+        // x[0, 16) is the block, x[16, 20) the chaining state a, b, c, d
+        private final ThreadLocal<int[]> block = ThreadLocal.withInitial(() -> new int[20]);
+
+        @Override
+        public String name() {
+            return "ntlm";
+        }
+
+        @Override
+        public int length() {
+            return 16;
+        }
+
+        @Override
+        public void hash(byte[] password, int offset, int length, byte[] digest) {
+            byte[] buffer = utf16.get();
+
+            if (buffer.length < 2 * length) utf16.set(buffer = new byte[2 * length]);
+            for (int i = 0; i < length; i++) {
+                if (password[offset + i] < 0) {
+                    byte[] encoded = new String(password, offset, length, java.nio.charset.StandardCharsets.UTF_8).getBytes(java.nio.charset.StandardCharsets.UTF_16LE);
+                    md4(encoded, 0, encoded.length, digest);
+                    return;
+                }
+                buffer[2 * i] = password[offset + i];
+                buffer[2 * i + 1] = 0;
+            }
+            md4(buffer, 0, 2 * length, digest);
+        }
+
+        private void md4(byte[] message, int offset, int length, byte[] digest) {
+            int[] x = block.get();
+            int end = offset + length;
+
+            x[16] = 0x67452301;
+            x[17] = 0xefcdab89;
+            x[18] = 0x98badcfe;
+            x[19] = 0x10325476;
+
+            for (; end - offset >= 64; offset += 64) {
+                for (int i = 0; i < 16; i++) {
+                    int at = offset + 4 * i;
+                    x[i] = (message[at] & 0xFF) | (message[at + 1] & 0xFF) << 8 | (message[at + 2] & 0xFF) << 16 | message[at + 3] << 24;
+                }
+                compress(x);
+            }
+
+            int tail = end - offset;
+            Arrays.fill(x, 0, 16, 0);
+            for (int i = 0; i < tail; i++) x[i >>> 2] |= (message[offset + i] & 0xFF) << ((i & 3) << 3);
+            x[tail >>> 2] |= 0x80 << ((tail & 3) << 3);
+            if (tail >= 56) {
+                compress(x);
+                Arrays.fill(x, 0, 16, 0);
+            }
+            // Message length in bits, 64-bit little-endian
+            x[14] = length << 3;
+            x[15] = length >>> 29;
+            compress(x);
+
+            for (int i = 0; i < 16; i++) digest[i] = (byte) (x[16 + (i >>> 2)] >>> ((i & 3) << 3));
+        }
+
+        /**
+         * This method compresses the block in x[0, 16) into the chaining state in x[16, 20).
+         *
+         * @param x block and chaining state.
+         */
+        private static void compress(int[] x) {
+            int a = x[16], b = x[17], c = x[18], d = x[19];
+            int x0 = x[0], x1 = x[1], x2 = x[2], x3 = x[3], x4 = x[4], x5 = x[5], x6 = x[6], x7 = x[7];
+            int x8 = x[8], x9 = x[9], x10 = x[10], x11 = x[11], x12 = x[12], x13 = x[13], x14 = x[14], x15 = x[15];
+
+            a = Integer.rotateLeft(a + ((b & c) | (~b & d)) + x0, 3);
+            d = Integer.rotateLeft(d + ((a & b) | (~a & c)) + x1, 7);
+            c = Integer.rotateLeft(c + ((d & a) | (~d & b)) + x2, 11);
+            b = Integer.rotateLeft(b + ((c & d) | (~c & a)) + x3, 19);
+            a = Integer.rotateLeft(a + ((b & c) | (~b & d)) + x4, 3);
+            d = Integer.rotateLeft(d + ((a & b) | (~a & c)) + x5, 7);
+            c = Integer.rotateLeft(c + ((d & a) | (~d & b)) + x6, 11);
+            b = Integer.rotateLeft(b + ((c & d) | (~c & a)) + x7, 19);
+            a = Integer.rotateLeft(a + ((b & c) | (~b & d)) + x8, 3);
+            d = Integer.rotateLeft(d + ((a & b) | (~a & c)) + x9, 7);
+            c = Integer.rotateLeft(c + ((d & a) | (~d & b)) + x10, 11);
+            b = Integer.rotateLeft(b + ((c & d) | (~c & a)) + x11, 19);
+            a = Integer.rotateLeft(a + ((b & c) | (~b & d)) + x12, 3);
+            d = Integer.rotateLeft(d + ((a & b) | (~a & c)) + x13, 7);
+            c = Integer.rotateLeft(c + ((d & a) | (~d & b)) + x14, 11);
+            b = Integer.rotateLeft(b + ((c & d) | (~c & a)) + x15, 19);
+
+            a = Integer.rotateLeft(a + ((b & c) | (b & d) | (c & d)) + x0 + 0x5a827999, 3);
+            d = Integer.rotateLeft(d + ((a & b) | (a & c) | (b & c)) + x4 + 0x5a827999, 5);
+            c = Integer.rotateLeft(c + ((d & a) | (d & b) | (a & b)) + x8 + 0x5a827999, 9);
+            b = Integer.rotateLeft(b + ((c & d) | (c & a) | (d & a)) + x12 + 0x5a827999, 13);
+            a = Integer.rotateLeft(a + ((b & c) | (b & d) | (c & d)) + x1 + 0x5a827999, 3);
+            d = Integer.rotateLeft(d + ((a & b) | (a & c) | (b & c)) + x5 + 0x5a827999, 5);
+            c = Integer.rotateLeft(c + ((d & a) | (d & b) | (a & b)) + x9 + 0x5a827999, 9);
+            b = Integer.rotateLeft(b + ((c & d) | (c & a) | (d & a)) + x13 + 0x5a827999, 13);
+            a = Integer.rotateLeft(a + ((b & c) | (b & d) | (c & d)) + x2 + 0x5a827999, 3);
+            d = Integer.rotateLeft(d + ((a & b) | (a & c) | (b & c)) + x6 + 0x5a827999, 5);
+            c = Integer.rotateLeft(c + ((d & a) | (d & b) | (a & b)) + x10 + 0x5a827999, 9);
+            b = Integer.rotateLeft(b + ((c & d) | (c & a) | (d & a)) + x14 + 0x5a827999, 13);
+            a = Integer.rotateLeft(a + ((b & c) | (b & d) | (c & d)) + x3 + 0x5a827999, 3);
+            d = Integer.rotateLeft(d + ((a & b) | (a & c) | (b & c)) + x7 + 0x5a827999, 5);
+            c = Integer.rotateLeft(c + ((d & a) | (d & b) | (a & b)) + x11 + 0x5a827999, 9);
+            b = Integer.rotateLeft(b + ((c & d) | (c & a) | (d & a)) + x15 + 0x5a827999, 13);
+
+            a = Integer.rotateLeft(a + (b ^ c ^ d) + x0 + 0x6ed9eba1, 3);
+            d = Integer.rotateLeft(d + (a ^ b ^ c) + x8 + 0x6ed9eba1, 9);
+            c = Integer.rotateLeft(c + (d ^ a ^ b) + x4 + 0x6ed9eba1, 11);
+            b = Integer.rotateLeft(b + (c ^ d ^ a) + x12 + 0x6ed9eba1, 15);
+            a = Integer.rotateLeft(a + (b ^ c ^ d) + x2 + 0x6ed9eba1, 3);
+            d = Integer.rotateLeft(d + (a ^ b ^ c) + x10 + 0x6ed9eba1, 9);
+            c = Integer.rotateLeft(c + (d ^ a ^ b) + x6 + 0x6ed9eba1, 11);
+            b = Integer.rotateLeft(b + (c ^ d ^ a) + x14 + 0x6ed9eba1, 15);
+            a = Integer.rotateLeft(a + (b ^ c ^ d) + x1 + 0x6ed9eba1, 3);
+            d = Integer.rotateLeft(d + (a ^ b ^ c) + x9 + 0x6ed9eba1, 9);
+            c = Integer.rotateLeft(c + (d ^ a ^ b) + x5 + 0x6ed9eba1, 11);
+            b = Integer.rotateLeft(b + (c ^ d ^ a) + x13 + 0x6ed9eba1, 15);
+            a = Integer.rotateLeft(a + (b ^ c ^ d) + x3 + 0x6ed9eba1, 3);
+            d = Integer.rotateLeft(d + (a ^ b ^ c) + x11 + 0x6ed9eba1, 9);
+            c = Integer.rotateLeft(c + (d ^ a ^ b) + x7 + 0x6ed9eba1, 11);
+            b = Integer.rotateLeft(b + (c ^ d ^ a) + x15 + 0x6ed9eba1, 15);
+
+            x[16] += a;
+            x[17] += b;
+            x[18] += c;
+            x[19] += d;
+        }
+    }
+
+    /**
+     * MD5 of several passwordList entries in lockstep, one lane per chain.
+     * <p>
+     * The chaining state and the message words are int arrays indexed by lane, and every MD5 step
+     * is a loop over the lanes with no branches, which C2's auto-vectorizer compiles to SIMD adds,
+     * rotates and logic ops (8 lanes per AVX2 register, 16 per AVX-512 register). This needs no
+     * incubator module, so the program still runs with a plain "java Rainbow.java"; on CPUs or
+     * JVMs that do not vectorize the loops it computes the same digests, only slower.
+     * Passwords that do not fit in one block (over 55 bytes) are hashed by the scalar algorithm.
+     * <p>
+     * C2 only vectorizes the main part of a loop, so a few lanes barely pay off; a few hundred
+     * lanes keep the vector loop busy. See RainbowHashBenchmark.md5Lanes and RainbowBuildBenchmark
+     * in ../bench.
+     */
+    private static final class Md5Lanes {
+        private final int lanes;
+        private int active;
+        private final int[] a, b, c, d;
+        // x[word][lane], one array per message word so that every step loop indexes its arrays by lane alone
+        private final int[][] x;
+        private final long[] hi, lo;
+        private final int[] lengths;
+
+        private Md5Lanes(int lanes) {
+            this.lanes = lanes;
+            lengths = new int[lanes];
+            a = new int[lanes];
+            b = new int[lanes];
+            c = new int[lanes];
+            d = new int[lanes];
+            x = new int[16][lanes];
+            hi = new long[lanes];
+            lo = new long[lanes];
+        }
+
+        /**
+         * This method hashes keyspace candidates into hi and lo, the first and last 8 digest bytes of every lane.
+         *
+         * @param index keyspace index per lane.
+         * @param count number of lanes in use.
+         */
+        private void hash(int[] index, int count) {
+            active = count;
+            for (int[] word : x) Arrays.fill(word, 0, count, 0);
+            for (int lane = 0; lane < count; lane++) {
+                byte[] bytes = passwordList.bytes;
+                int offset = 0, length;
+
+                if (rules == null) {
+                    offset = passwordList.offset(index[lane]);
+                    length = passwordList.length(index[lane]);
+                } else {
+                    bytes = candidateBuffer(index[lane]);
+                    length = candidate(index[lane], bytes);
+                }
+                lengths[lane] = length;
+                if (length > 55) continue;
+                for (int i = 0; i < length; i++) x[i >>> 2][lane] |= (bytes[offset + i] & 0xFF) << ((i & 3) << 3);
+                x[length >>> 2][lane] |= 0x80 << ((length & 3) << 3);
+                x[14][lane] = length << 3;
+            }
+            Arrays.fill(a, 0, count, 0x67452301);
+            Arrays.fill(b, 0, count, 0xefcdab89);
+            Arrays.fill(c, 0, count, 0x98badcfe);
+            Arrays.fill(d, 0, count, 0x10325476);
+
+            ff(a, b, c, d, x[0], 0xd76aa478, 7);
+            ff(d, a, b, c, x[1], 0xe8c7b756, 12);
+            ff(c, d, a, b, x[2], 0x242070db, 17);
+            ff(b, c, d, a, x[3], 0xc1bdceee, 22);
+            ff(a, b, c, d, x[4], 0xf57c0faf, 7);
+            ff(d, a, b, c, x[5], 0x4787c62a, 12);
+            ff(c, d, a, b, x[6], 0xa8304613, 17);
+            ff(b, c, d, a, x[7], 0xfd469501, 22);
+            ff(a, b, c, d, x[8], 0x698098d8, 7);
+            ff(d, a, b, c, x[9], 0x8b44f7af, 12);
+            ff(c, d, a, b, x[10], 0xffff5bb1, 17);
+            ff(b, c, d, a, x[11], 0x895cd7be, 22);
+            ff(a, b, c, d, x[12], 0x6b901122, 7);
+            ff(d, a, b, c, x[13], 0xfd987193, 12);
+            ff(c, d, a, b, x[14], 0xa679438e, 17);
+            ff(b, c, d, a, x[15], 0x49b40821, 22);
+
+            gg(a, b, c, d, x[1], 0xf61e2562, 5);
+            gg(d, a, b, c, x[6], 0xc040b340, 9);
+            gg(c, d, a, b, x[11], 0x265e5a51, 14);
+            gg(b, c, d, a, x[0], 0xe9b6c7aa, 20);
+            gg(a, b, c, d, x[5], 0xd62f105d, 5);
+            gg(d, a, b, c, x[10], 0x02441453, 9);
+            gg(c, d, a, b, x[15], 0xd8a1e681, 14);
+            gg(b, c, d, a, x[4], 0xe7d3fbc8, 20);
+            gg(a, b, c, d, x[9], 0x21e1cde6, 5);
+            gg(d, a, b, c, x[14], 0xc33707d6, 9);
+            gg(c, d, a, b, x[3], 0xf4d50d87, 14);
+            gg(b, c, d, a, x[8], 0x455a14ed, 20);
+            gg(a, b, c, d, x[13], 0xa9e3e905, 5);
+            gg(d, a, b, c, x[2], 0xfcefa3f8, 9);
+            gg(c, d, a, b, x[7], 0x676f02d9, 14);
+            gg(b, c, d, a, x[12], 0x8d2a4c8a, 20);
+
+            hh(a, b, c, d, x[5], 0xfffa3942, 4);
+            hh(d, a, b, c, x[8], 0x8771f681, 11);
+            hh(c, d, a, b, x[11], 0x6d9d6122, 16);
+            hh(b, c, d, a, x[14], 0xfde5380c, 23);
+            hh(a, b, c, d, x[1], 0xa4beea44, 4);
+            hh(d, a, b, c, x[4], 0x4bdecfa9, 11);
+            hh(c, d, a, b, x[7], 0xf6bb4b60, 16);
+            hh(b, c, d, a, x[10], 0xbebfbc70, 23);
+            hh(a, b, c, d, x[13], 0x289b7ec6, 4);
+            hh(d, a, b, c, x[0], 0xeaa127fa, 11);
+            hh(c, d, a, b, x[3], 0xd4ef3085, 16);
+            hh(b, c, d, a, x[6], 0x04881d05, 23);
+            hh(a, b, c, d, x[9], 0xd9d4d039, 4);
+            hh(d, a, b, c, x[12], 0xe6db99e5, 11);
+            hh(c, d, a, b, x[15], 0x1fa27cf8, 16);
+            hh(b, c, d, a, x[2], 0xc4ac5665, 23);
+
+            ii(a, b, c, d, x[0], 0xf4292244, 6);
+            ii(d, a, b, c, x[7], 0x432aff97, 10);
+            ii(c, d, a, b, x[14], 0xab9423a7, 15);
+            ii(b, c, d, a, x[5], 0xfc93a039, 21);
+            ii(a, b, c, d, x[12], 0x655b59c3, 6);
+            ii(d, a, b, c, x[3], 0x8f0ccc92, 10);
+            ii(c, d, a, b, x[10], 0xffeff47d, 15);
+            ii(b, c, d, a, x[1], 0x85845dd1, 21);
+            ii(a, b, c, d, x[8], 0x6fa87e4f, 6);
+            ii(d, a, b, c, x[15], 0xfe2ce6e0, 10);
+            ii(c, d, a, b, x[6], 0xa3014314, 15);
+            ii(b, c, d, a, x[13], 0x4e0811a1, 21);
+            ii(a, b, c, d, x[4], 0xf7537e82, 6);
+            ii(d, a, b, c, x[11], 0xbd3af235, 10);
+            ii(c, d, a, b, x[2], 0x2ad7d2bb, 15);
+            ii(b, c, d, a, x[9], 0xeb86d391, 21);
+
+            for (int lane = 0; lane < count; lane++) {
+                if (lengths[lane] > 55) {
+                    byte[] digest = digestBuffer.get();
+                    Rainbow.hash(index[lane], digest);
+                    hi[lane] = getLong(digest, 0);
+                    lo[lane] = getLong(digest, 8);
+                    continue;
+                }
+                // The digest is the state words in little-endian order
+                hi[lane] = (long) Integer.reverseBytes(a[lane] + 0x67452301) << 32 | (Integer.reverseBytes(b[lane] + 0xefcdab89) & 0xFFFFFFFFL);
+                lo[lane] = (long) Integer.reverseBytes(c[lane] + 0x98badcfe) << 32 | (Integer.reverseBytes(d[lane] + 0x10325476) & 0xFFFFFFFFL);
+            }
+        }
+
+        private void ff(int[] a, int[] b, int[] c, int[] d, int[] word, int t, int s) {
+            for (int lane = 0; lane < active; lane++)
+                a[lane] = b[lane] + Integer.rotateLeft(a[lane] + ((b[lane] & c[lane]) | (~b[lane] & d[lane])) + word[lane] + t, s);
+        }
+
+        private void gg(int[] a, int[] b, int[] c, int[] d, int[] word, int t, int s) {
+            for (int lane = 0; lane < active; lane++)
+                a[lane] = b[lane] + Integer.rotateLeft(a[lane] + ((b[lane] & d[lane]) | (c[lane] & ~d[lane])) + word[lane] + t, s);
+        }
+
+        private void hh(int[] a, int[] b, int[] c, int[] d, int[] word, int t, int s) {
+            for (int lane = 0; lane < active; lane++)
+                a[lane] = b[lane] + Integer.rotateLeft(a[lane] + (b[lane] ^ c[lane] ^ d[lane]) + word[lane] + t, s);
+        }
+
+        private void ii(int[] a, int[] b, int[] c, int[] d, int[] word, int t, int s) {
+            for (int lane = 0; lane < active; lane++)
+                a[lane] = b[lane] + Integer.rotateLeft(a[lane] + (c[lane] ^ (b[lane] | ~d[lane])) + word[lane] + t, s);
+        }
+    }
+
+    /**
+     * Hashcat-style mangling rules over the wordlist, selected with --rules. The rules are
+     * families of variants, and a rule variant is one variant of every family:
+     * <pre>
+     *  case      none, capitalize (c), upper case (u), toggle case (t)
+     *  leet      none, a e i o s t to 4 3 1 0 5 7 (either case)
+     *  digits:N  none, or 1 to N appended digits (00 to 99 for two digits); N is 2 if left out
+     * </pre>
+     * Variants are numbered in mixed radix, case fastest, then leet, then digits, with variant
+     * 0 the unchanged password. Nothing is expanded: a candidate is built from its variant
+     * number and password when it is hashed or printed. Case and leet only change ASCII letters.
+     */
+    private static final class Rules {
+        private static final byte[] LEET = new byte[128];
+
+        static {
+            String from = "aeiostAEIOST", to = "431057431057";
+            for (int i = 0; i < from.length(); i++) LEET[from.charAt(i)] = (byte) to.charAt(i);
+        }
+
+        private final String spec;
+        private final int cases;
+        private final int leets;
+        private final int count;
+        // Most bytes a rule adds to a password
+        private final int growth;
+
+        private Rules(String spec, int cases, int leets, int digits) {
+            int digitVariants = 1;
+            for (int i = 0, power = 1; i < digits; i++) digitVariants += power *= 10;
+
+            this.spec = spec;
+            this.cases = cases;
+            this.leets = leets;
+            this.count = cases * leets * digitVariants;
+            this.growth = digits;
+        }
+
+        /**
+         * This method parses a --rules value.
+         *
+         * @param spec comma-separated rule families.
+         * @return the rules.
+         */
+        private static Rules parse(String spec) {
+            int cases = 1, leets = 1, digits = 0;
+
+            for (String rule : spec.split(",")) {
+                if (rule.equals("case")) cases = 4;
+                else if (rule.equals("leet")) leets = 2;
+                else if (rule.equals("digits")) digits = 2;
+                else if (rule.matches("digits:[1-6]")) digits = rule.charAt(7) - '0';
+                else throw new IllegalArgumentException("unknown rule: " + rule);
+            }
+            return new Rules(spec, cases, leets, digits);
+        }
+
+        /**
+         * This method applies a rule variant to a password.
+         *
+         * @param variant rule variant, below count.
+         * @param bytes   buffer holding the password.
+         * @param offset  offset of the password.
+         * @param length  length of the password.
+         * @param out     receives the candidate, at least length + growth bytes.
+         * @return the length of the candidate.
+         */
+        private int apply(int variant, byte[] bytes, int offset, int length, byte[] out) {
+            int caseRule = variant % cases, leet = variant / cases % leets, digitRule = variant / cases / leets;
+
+            for (int i = 0; i < length; i++) {
+                int c = bytes[offset + i];
+
+                if (c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z') {
+                    boolean upper = c <= 'Z';
+
+                    if (caseRule == 1) upper = i == 0;
+                    else if (caseRule == 2) upper = true;
+                    else if (caseRule == 3) upper = !upper;
+                    c = upper ? c & ~0x20 : c | 0x20;
+                    if (leet == 1 && LEET[c] != 0) c = LEET[c];
+                }
+                out[i] = (byte) c;
+            }
+
+            // digitRule 1 to 10 appends one digit, 11 to 110 two digits, and so on
+            int width = 0, span = 1;
+            while (digitRule >= span) {
+                digitRule -= span;
+                width++;
+                span *= 10;
+            }
+            for (int i = width - 1; i >= 0; i--, digitRule /= 10) out[length + i] = (byte) ('0' + digitRule % 10);
+            return length + width;
+        }
+    }
+
+    /**
+     * A finished chain: its start point, every passwordList index it passes through and its final hash.
+     */
+    private static final class Chain {
+        private final int start;
+        private final int[] visited;
+        private final long hi;
+        private final long lo;
+
+        private Chain(int start, int[] visited, long hi, long lo) {
+            this.start = start;
+            this.visited = visited;
+            this.hi = hi;
+            this.lo = lo;
+        }
+    }
+
+    /**
+     * Growable primitive arrays of committed chains, sorted into an EndpointIndex once the build is done.
+     * Chains flushed to a checkpoint segment are dropped from the arrays but still counted.
+     */
+    private static final class ChainBuffer {
+        private long[] hi = new long[1024];
+        private long[] lo = new long[1024];
+        private int[] start = new int[1024];
+        private int size;
+        private long flushed;
+
+        private void add(long chainHi, long chainLo, int chainStart) {
+            if (size == start.length) {
+                hi = Arrays.copyOf(hi, size * 2);
+                lo = Arrays.copyOf(lo, size * 2);
+                start = Arrays.copyOf(start, size * 2);
+            }
+            hi[size] = chainHi;
+            lo[size] = chainLo;
+            start[size++] = chainStart;
+        }
+
+        private EndpointIndex toIndex() {
+            EndpointIndex index = new EndpointIndex(Arrays.copyOf(hi, size), Arrays.copyOf(lo, size), Arrays.copyOf(start, size));
+            index.sort(0, size - 1);
+            return index;
+        }
+
+        private void clear() {
+            flushed += size;
+            size = 0;
+        }
+
+        private long count() {
+            return flushed + size;
+        }
+    }
+
+    /**
+     * The wordlist as one contiguous buffer of the raw password bytes plus an offset per
+     * password, instead of a String object per password. Chain steps hash and reduce
+     * straight from the buffer; a String is only decoded when a password is printed.
+     * The buffer is a single array, so the wordlist is limited to 2 GB of password bytes.
+     */
+    private static final class Wordlist {
+        private byte[] bytes = new byte[1 << 16];
+        private int[] offsets = new int[1025];
+        private int size;
+
+        /**
+         * This method streams a wordlist, one password per line. Line endings (\n or \r\n)
+         * are stripped and every password plus a \n is fed to the digest, which fingerprints
+         * the wordlist for the binary table header.
+         *
+         * @param in     wordlist file.
+         * @param digest fingerprint of the wordlist.
+         * @throws IOException IO error
+         */
+        private void read(InputStream in, MessageDigest digest) throws IOException {
+            byte[] buffer = new byte[1 << 16];
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int read;
+
+            while ((read = in.read(buffer)) > 0) {
+                int from = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] != '\n') continue;
+                    line.write(buffer, from, i - from);
+                    addLine(line, digest);
+                    from = i + 1;
+                }
+                line.write(buffer, from, read - from);
+            }
+            if (line.size() > 0) addLine(line, digest);
+            bytes = Arrays.copyOf(bytes, offsets[size]);
+            offsets = Arrays.copyOf(offsets, size + 1);
+        }
+
+        private void addLine(ByteArrayOutputStream line, MessageDigest digest) {
+            byte[] password = line.toByteArray();
+            int length = password.length > 0 && password[password.length - 1] == '\r' ? password.length - 1 : password.length;
+
+            add(password, length);
+            digest.update(password, 0, length);
+            digest.update((byte) '\n');
+            line.reset();
+        }
+
+        private void add(byte[] password, int length) {
+            int end = offsets[size];
+
+            if ((long) end + length > Integer.MAX_VALUE - 8) throw new IllegalStateException("wordlist is larger than 2 GB");
+            if (end + length > bytes.length)
+                bytes = Arrays.copyOf(bytes, (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) bytes.length * 2, end + length)));
+            if (size + 1 == offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+
+            System.arraycopy(password, 0, bytes, end, length);
+            offsets[++size] = end + length;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private int offset(int index) {
+            return offsets[index];
+        }
+
+        private int length(int index) {
+            return offsets[index + 1] - offsets[index];
+        }
+
+        private String get(int index) {
+            return new String(bytes, offsets[index], length(index), java.nio.charset.StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * A fixed-size bitset that can be read and marked from several threads.
+     * It keeps a running count of marked bits so checking for full coverage
+     * does not rescan the whole set.
+     */
+    private static final class CoverageSet {
+        private final AtomicLongArray words;
+        private final AtomicInteger count = new AtomicInteger();
+        private final int size;
+
+        private CoverageSet(int size) {
+            this.size = size;
+            this.words = new AtomicLongArray((size + 63) >>> 6);
+        }
+
+        private boolean get(int index) {
+            return (words.get(index >>> 6) & (1L << index)) != 0;
+        }
+
+        private boolean set(int index) {
+            long bit = 1L << index, old;
+            do {
+                old = words.get(index >>> 6);
+                if ((old & bit) != 0) return false;
+            } while (!words.compareAndSet(index >>> 6, old, old | bit));
+            count.incrementAndGet();
+            return true;
+        }
+
+        private int cardinality() {
+            return count.get();
+        }
+
+        private boolean isFull() {
+            return count.get() == size;
+        }
+
+        private int words() {
+            return words.length();
+        }
+
+        private long word(int index) {
+            return words.get(index);
+        }
+
+        private void restore(int index, long word) {
+            words.set(index, word);
+            count.addAndGet(Long.bitCount(word));
+        }
+    }
+
+    /**
+     * The final hash values stored so far in a perfect table, an open-addressing hash set of
+     * 16 byte endpoints in primitive arrays. Chains are committed on a single thread in
+     * wordlist order, so the set needs no locking and the table does not depend on --threads.
+     */
+    private static final class EndpointSet {
+        private long[] hi = new long[1 << 10];
+        private long[] lo = new long[1 << 10];
+        private boolean[] used = new boolean[1 << 10];
+        private int size;
+        private long merged;
+
+        /**
+         * This method adds a final hash value.
+         *
+         * @param chainHi first 8 bytes of the final hash.
+         * @param chainLo last 8 bytes of the final hash.
+         * @return false, counted as a merge, if the final hash was already stored.
+         */
+        private boolean add(long chainHi, long chainLo) {
+            if (2 * (size + 1) > used.length) grow();
+            int slot = slot(chainHi, chainLo, used.length);
+
+            while (used[slot]) {
+                if (hi[slot] == chainHi && lo[slot] == chainLo) {
+                    merged++;
+                    return false;
+                }
+                slot = (slot + 1) & (used.length - 1);
+            }
+            used[slot] = true;
+            hi[slot] = chainHi;
+            lo[slot] = chainLo;
+            size++;
+            return true;
+        }
+
+        private void grow() {
+            long[] oldHi = hi, oldLo = lo;
+            boolean[] oldUsed = used;
+
+            hi = new long[oldUsed.length * 2];
+            lo = new long[oldUsed.length * 2];
+            used = new boolean[oldUsed.length * 2];
+            for (int i = 0; i < oldUsed.length; i++) {
+                if (!oldUsed[i]) continue;
+                int slot = slot(oldHi[i], oldLo[i], used.length);
+                while (used[slot]) slot = (slot + 1) & (used.length - 1);
+                used[slot] = true;
+                hi[slot] = oldHi[i];
+                lo[slot] = oldLo[i];
+            }
+        }
+
+        // Final hashes are uniformly distributed, so their low bits are a good slot
+        private static int slot(long chainHi, long chainLo, int capacity) {
+            return (int) (chainHi ^ chainLo) & (capacity - 1);
+        }
+    }
+
+    /**
+     * A size-capped LRU cache of lookup results, hash to password or to a miss, with hit and
+     * miss counters. Entries are spread over 16 access-ordered LinkedHashMaps by the hash of the
+     * key, each with its own lock and its share of the capacity, so concurrent lookups rarely
+     * contend. Eviction is least recently used per stripe.
+     */
+    private static final class ResultCache {
+        private static final int STRIPES = 16;
+
+        private final Stripe[] stripes = new Stripe[STRIPES];
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        private ResultCache(int size) {
+            for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe(Math.max(1, (size + STRIPES - 1) / STRIPES));
+        }
+
+        /**
+         * @param key a lower case hexadecimal hash.
+         * @return the cached result, empty for a cached miss, or null if the hash is not cached.
+         */
+        private Optional<String> get(String key) {
+            Stripe stripe = stripe(key);
+            Optional<String> result;
+
+            synchronized (stripe) {
+                result = stripe.get(key);
+            }
+            if (result != null) hits.increment();
+            else misses.increment();
+            return result;
+        }
+
+        private void put(String key, Optional<String> result) {
+            Stripe stripe = stripe(key);
+
+            synchronized (stripe) {
+                stripe.put(key, result);
+            }
+        }
+
+        private long size() {
+            long size = 0;
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    size += stripe.size();
+                }
+            }
+            return size;
+        }
+
+        private Stripe stripe(String key) {
+            return stripes[key.hashCode() & (STRIPES - 1)];
+        }
+
+        private static final class Stripe extends LinkedHashMap<String, Optional<String>> {
+            private static final long serialVersionUID = 1L;
+            private final int capacity;
+
+            private Stripe(int capacity) {
+                super(16, 0.75f, true);
+                this.capacity = capacity;
+            }
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Optional<String>> eldest) {
+                return size() > capacity;
+            }
+        }
+    }
+
+    /**
+     * A Bloom filter over the final hash values of the table, checked before a final hash
+     * value is searched for. Most final hash values a lookup computes are in no chain, and the
+     * filter rules those out from a few bits in memory instead of a binary search of the table,
+     * which for a mapped table means touching pages of the file.
+     * <p>
+     * The filter only sees the bits of a final hash value the table keeps (see
+     * ChainIndex.hiMask), which for a --compact table are just the leading bits of the high
+     * half. Those bits are run through a 64-bit mixer (the MurmurHash3 finaliser) into the two
+     * hashes of double hashing, so every kept bit spreads over the whole filter. With 10 bits
+     * per chain and 7 probes about 1% of absent final hash values get through.
+     */
+    private static final class EndpointFilter {
+        private final long[] bits;
+        private final long mask;
+        private final int probes;
+
+        private EndpointFilter(long size, int probes) {
+            this.bits = new long[(int) (size >>> 6)];
+            this.mask = size - 1;
+            this.probes = probes;
+        }
+
+        /**
+         * This method builds the filter for a table.
+         *
+         * @param table        the rainbow table.
+         * @param bitsPerChain filter bits per chain, 0 for no filter.
+         * @return the filter, or null if bitsPerChain is 0.
+         */
+        private static EndpointFilter of(ChainIndex table, int bitsPerChain) {
+            if (bitsPerChain <= 0) return null;
+            long size = Math.max(64, Long.highestOneBit(Math.min(table.size() * bitsPerChain, (long) Integer.MAX_VALUE << 6) * 2 - 1));
+            EndpointFilter filter = new EndpointFilter(size, Math.max(1, (int) Math.round(bitsPerChain * Math.log(2))));
+
+            for (long record = 0; record < table.size(); record++) filter.add(table.endpointHi(record), table.endpointLo(record));
+            return filter;
+        }
+
+        private void add(long hi, long lo) {
+            long h1 = mix(hi ^ mix(lo)), h2 = mix(h1) | 1;
+            for (int i = 0; i < probes; i++) {
+                long bit = (h1 + i * h2) & mask;
+                bits[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        private boolean mightContain(long hi, long lo) {
+            long h1 = mix(hi ^ mix(lo)), h2 = mix(h1) | 1;
+            for (int i = 0; i < probes; i++) {
+                long bit = (h1 + i * h2) & mask;
+                if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+            }
+            return true;
+        }
+
+        private static long mix(long value) {
+            value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+            value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+            return value ^ (value >>> 33);
+        }
+    }
+
+    /**
+     * One table of a sharded rainbow table, built with --shards or loaded from its own
+     * binary table file. Every shard has its own reduction (see reduce), so each one adds
+     * coverage of its own, and a shard is searched independently of the others: a lookup
+     * searches every shard at once, and the shards can be spread over files and disks.
+     */
+    private static final class Shard {
+        private final int index;
+        private final ChainIndex table;
+        private final EndpointFilter filter;
+
+        private Shard(int index, ChainIndex table, EndpointFilter filter) {
+            this.index = index;
+            this.table = table;
+            this.filter = filter;
+        }
+    }
+
+    /**
+     * Chains of a rainbow table sorted by final hash, held as the two big-endian halves
+     * of the 128-bit hash so a lookup is a binary search instead of a scan of every chain.
+     */
+    private interface ChainIndex {
+        long size();
+
+        long endpointHi(long record);
+
+        long endpointLo(long record);
+
+        int start(long record);
+
+        /**
+         * @return the bits of the first 8 bytes of a final hash value that the index stores;
+         * a lookup masks its final hash values with it before searching.
+         */
+        default long hiMask() {
+            return -1L;
+        }
+
+        /**
+         * @return the bits of the last 8 bytes of a final hash value that the index stores.
+         */
+        default long loMask() {
+            return -1L;
+        }
+
+        /**
+         * This method binary searches the sorted final hash values.
+         *
+         * @param hi first 8 bytes of the final hash.
+         * @param lo last 8 bytes of the final hash.
+         * @return the first record ending in the final hash, or -1 if no chain ends in it.
+         */
+        default long find(long hi, long lo) {
+            long low = 0, high = size();
+
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                int cmp = Long.compareUnsigned(endpointHi(mid), hi);
+                if (cmp == 0) cmp = Long.compareUnsigned(endpointLo(mid), lo);
+
+                if (cmp < 0) low = mid + 1;
+                else high = mid;
+            }
+            return low < size() && endpointHi(low) == hi && endpointLo(low) == lo ? low : -1;
+        }
+    }
+
+    /**
+     * Compressed in-memory chain index, selected with --compact=BITS, at about 8 to 12 bytes
+     * per chain instead of 20.
+     * <p>
+     * The final hash values are sorted, so the leading bits of a record follow from its
+     * position: the top prefixBits bits (after the dpBits zero bits of a distinguished point
+     * table) pick a bucket, and a directory holds the first record of every bucket. Per record
+     * only the next BITS bits of the final hash value and the start point, in just enough bits
+     * for the largest start point, are kept, bit-packed back to back. The rest of the final hash
+     * value is dropped: a lookup masks its final hash values the same way (see hiMask), so
+     * chains that agree on the stored bits come up as candidates and are told apart by the
+     * full digest check, as a few more false alarms.
+     * <p>
+     * The start points are in final hash order, which is random, so they are stored at a
+     * fixed width rather than as deltas; the part that does compress by position is the
+     * leading bits of the final hash values, which the bucket directory replaces.
+     */
+    private static final class CompactIndex implements ChainIndex {
+        private final int skipBits;
+        private final int prefixBits;
+        private final int suffixBits;
+        private final int startBits;
+        private final int[] buckets;
+        private final long[] bits;
+        private final long size;
+
+        private CompactIndex(int skipBits, int prefixBits, int suffixBits, int startBits, long size) {
+            this.skipBits = skipBits;
+            this.prefixBits = prefixBits;
+            this.suffixBits = suffixBits;
+            this.startBits = startBits;
+            this.size = size;
+            this.buckets = new int[(1 << prefixBits) + 1];
+            this.bits = new long[(int) ((size * (suffixBits + startBits) + 63) >>> 6) + 1];
+        }
+
+        /**
+         * This method compresses a sorted chain index.
+         *
+         * @param table      chains sorted by final hash value.
+         * @param suffixBits final hash bits kept per chain after the bucket prefix.
+         * @param skipBits   leading final hash bits that are zero in every chain.
+         * @return the compressed index.
+         */
+        private static CompactIndex of(ChainIndex table, int suffixBits, int skipBits) {
+            long size = table.size();
+            if (size > Integer.MAX_VALUE) throw new IllegalArgumentException("too many chains to compact: " + size);
+            int maxStart = 0;
+            for (long record = 0; record < size; record++) maxStart = Math.max(maxStart, table.start(record));
+
+            // About 4 to 8 chains per bucket, so the directory costs at most a byte per chain
+            int prefixBits = Math.min(Math.min(24, 64 - skipBits), Math.max(0, 61 - Long.numberOfLeadingZeros(size)));
+            int startBits = 32 - Integer.numberOfLeadingZeros(maxStart);
+            CompactIndex index = new CompactIndex(skipBits, prefixBits, Math.min(suffixBits, Math.min(64 - skipBits - prefixBits, 64 - startBits)), startBits, size);
+
+            for (long record = 0; record < size; record++) {
+                long hi = table.endpointHi(record) << skipBits;
+
+                index.buckets[(int) top(hi, prefixBits) + 1]++;
+                index.put(record, top(hi << prefixBits, index.suffixBits) << index.startBits | table.start(record));
+            }
+            for (int b = 1; b < index.buckets.length; b++) index.buckets[b] += index.buckets[b - 1];
+            return index;
+        }
+
+        /**
+         * @return the top bits of a value, 0 for no bits.
+         */
+        private static long top(long value, int count) {
+            return count == 0 ? 0 : value >>> (64 - count);
+        }
+
+        private void put(long record, long value) {
+            int width = suffixBits + startBits;
+            long position = record * width;
+            int word = (int) (position >>> 6), offset = (int) (position & 63);
+
+            bits[word] |= value << offset;
+            if (offset + width > 64) bits[word + 1] |= value >>> (64 - offset);
+        }
+
+        private long get(long record) {
+            int width = suffixBits + startBits;
+            long position = record * width;
+            int word = (int) (position >>> 6), offset = (int) (position & 63);
+            long value = bits[word] >>> offset;
+
+            if (offset + width > 64) value |= bits[word + 1] << (64 - offset);
+            return width == 64 ? value : value & ((1L << width) - 1);
+        }
+
+        private long suffix(long record) {
+            return get(record) >>> startBits;
+        }
+
+        private int bucket(long record) {
+            int low = 0, high = buckets.length - 1;
+
+            // Last bucket starting at or before the record
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (buckets[mid] <= record) low = mid;
+                else high = mid - 1;
+            }
+            return low;
+        }
+
+        /**
+         * This method finds the first record by bucket and a binary search of the suffixes inside it.
+         */
+        @Override
+        public long find(long hi, long lo) {
+            long key = hi << skipBits;
+            int bucket = (int) top(key, prefixBits);
+            long suffix = top(key << prefixBits, suffixBits);
+            long low = buckets[bucket], high = buckets[bucket + 1];
+
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                if (Long.compareUnsigned(suffix(mid), suffix) < 0) low = mid + 1;
+                else high = mid;
+            }
+            return low < buckets[bucket + 1] && suffix(low) == suffix ? low : -1;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public long endpointHi(long record) {
+            long key = (prefixBits == 0 ? 0 : (long) bucket(record) << (64 - prefixBits))
+                    | (suffixBits == 0 ? 0 : suffix(record) << (64 - prefixBits - suffixBits));
+            return key >>> skipBits;
+        }
+
+        @Override
+        public long endpointLo(long record) {
+            return 0;
+        }
+
+        @Override
+        public int start(long record) {
+            return (int) (get(record) & ((1L << startBits) - 1));
+        }
+
+        @Override
+        public long hiMask() {
+            int kept = skipBits + prefixBits + suffixBits;
+            return kept == 0 ? 0 : -1L << (64 - kept);
+        }
+
+        @Override
+        public long loMask() {
+            return 0;
+        }
+
+        /**
+         * @return bytes held by the index, per chain.
+         */
+        private double bytesPerChain() {
+            return size == 0 ? 0 : (buckets.length * 4.0 + bits.length * 8.0) / size;
+        }
+    }
+
+    /**
+     * In-memory chain index, three parallel primitive arrays sorted by final hash value.
+     */
+    private static final class EndpointIndex implements ChainIndex {
+        private final long[] hi;
+        private final long[] lo;
+        private final int[] start;
+
+        private EndpointIndex(long[] hi, long[] lo, int[] start) {
+            this.hi = hi;
+            this.lo = lo;
+            this.start = start;
+        }
+
+        /**
+         * This method quicksorts the records between two positions by final hash value,
+         * ties broken by start point so the order does not depend on build order.
+         *
+         * @param from first record, inclusive.
+         * @param to   last record, inclusive.
+         */
+        private void sort(int from, int to) {
+            while (from < to) {
+                int mid = (from + to) >>> 1, i = from, j = to;
+                long pivotHi = hi[mid], pivotLo = lo[mid];
+                int pivotStart = start[mid];
+
+                while (i <= j) {
+                    while (compare(i, pivotHi, pivotLo, pivotStart) < 0) i++;
+                    while (compare(j, pivotHi, pivotLo, pivotStart) > 0) j--;
+                    if (i <= j) swap(i++, j--);
+                }
+
+                // Recurse into the smaller half so the stack stays O(log n)
+                if (j - from < to - i) {
+                    sort(from, j);
+                    from = i;
+                } else {
+                    sort(i, to);
+                    to = j;
+                }
+            }
+        }
+
+        private int compare(int record, long pivotHi, long pivotLo, int pivotStart) {
+            int cmp = Long.compareUnsigned(hi[record], pivotHi);
+            if (cmp == 0) cmp = Long.compareUnsigned(lo[record], pivotLo);
+            return cmp != 0 ? cmp : Integer.compare(start[record], pivotStart);
+        }
+
+        private void swap(int a, int b) {
+            long h = hi[a], l = lo[a];
+            int st = start[a];
+            hi[a] = hi[b];
+            lo[a] = lo[b];
+            start[a] = start[b];
+            hi[b] = h;
+            lo[b] = l;
+            start[b] = st;
+        }
+
+        @Override
+        public long size() {
+            return start.length;
+        }
+
+        @Override
+        public long endpointHi(long record) {
+            return hi[(int) record];
+        }
+
+        @Override
+        public long endpointLo(long record) {
+            return lo[(int) record];
+        }
+
+        @Override
+        public int start(long record) {
+            return start[(int) record];
+        }
+    }
+
+    /**
+     * A binary rainbow table on disk, read through memory-mapped buffers so the table
+     * does not have to fit on the heap.
+     * <p>
+     * Layout (big-endian):
+     * <pre>
+     *  magic "RBTB" | version | wordlist MD5 (16 bytes) | wordlist size | chain length | reduction scheme | chain count | hash algorithm
+     *  | distinguished point bits | shard
+     *  chain count x [ final hash, first 16 raw bytes | start point index into the wordlist, 4 bytes ]
+     * </pre>
+     * Records are sorted by final hash as unsigned bytes, the same order as Rainbow.txt.
+     */
+    private static final class MappedTable implements ChainIndex {
+        private static final int MAGIC = 0x52425442;
+        private static final int VERSION = 3;
+        private static final int HEADER = 56;
+        private static final int RECORD = 20;
+        private static final int REDUCTION_UNIFORM = 0;
+        private static final int REDUCTION_COLUMN = 1;
+        private static final int RECORDS_PER_BUFFER = Integer.MAX_VALUE / RECORD;
+
+        private final ByteBuffer[] buffers;
+        private final byte[] digest = new byte[16];
+        private final int wordlistSize;
+        private final int chainLength;
+        private final int reduction;
+        private final long size;
+        private final HashAlgorithm algorithm;
+        private final int dpBits;
+        private final int shard;
+
+        private MappedTable(FileChannel channel) throws IOException {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(HEADER, channel.size()));
+            if (header.remaining() < HEADER || header.getInt() != MAGIC || header.getInt() != VERSION)
+                throw new IOException("not a binary rainbow table");
+            header.get(digest);
+            wordlistSize = header.getInt();
+            chainLength = header.getInt();
+            reduction = header.getInt();
+            size = header.getLong();
+            int algorithmId = header.getInt();
+
+            if (algorithmId < 0 || algorithmId >= algorithms.length)
+                throw new IOException("unknown hash algorithm in binary rainbow table");
+            algorithm = algorithms[algorithmId];
+            dpBits = header.getInt();
+            shard = header.getInt();
+
+            if (channel.size() != HEADER + size * RECORD)
+                throw new IOException("truncated binary rainbow table");
+
+            buffers = new ByteBuffer[(int) ((size + RECORDS_PER_BUFFER - 1) / RECORDS_PER_BUFFER)];
+            for (int i = 0; i < buffers.length; i++) {
+                long first = (long) i * RECORDS_PER_BUFFER;
+                long count = Math.min(RECORDS_PER_BUFFER, size - first);
+                buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER + first * RECORD, count * RECORD);
+            }
+        }
+
+        /**
+         * This method memory-maps a binary table written by {@link #write(Path)}.
+         *
+         * @param path binary table file.
+         * @return the mapped table.
+         * @throws IOException if the file cannot be read or is not a binary table.
+         */
+        private static MappedTable open(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return new MappedTable(channel);
+            }
+        }
+
+        /**
+         * This method writes a built rainbow table in the binary table format.
+         *
+         * @param table the table of the shard being built.
+         * @param path  binary table file.
+         * @throws IOException IO error
+         */
+        private static void write(ChainIndex table, Path path) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+                writeHeader(out, table.size());
+                for (long i = 0; i < table.size(); i++) {
+                    out.writeLong(table.endpointHi(i));
+                    out.writeLong(table.endpointLo(i));
+                    out.writeInt(table.start(i));
+                }
+            }
+            System.out.println("Generated binary table at " + path);
+        }
+
+        /**
+         * This method writes the header of a binary table for the current wordlist and options.
+         *
+         * @param out   binary table file.
+         * @param count number of records following the header.
+         * @throws IOException IO error
+         */
+        private static void writeHeader(DataOutputStream out, long count) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.write(wordlistDigest);
+            out.writeInt(keyspace);
+            out.writeInt(Rainbow.chainLength);
+            out.writeInt(Rainbow.reduction);
+            out.writeLong(count);
+            out.writeInt(algorithmId(Rainbow.algorithm));
+            out.writeInt(Rainbow.dpBits);
+            out.writeInt(Rainbow.shard);
+        }
+
+        private boolean matches(byte[] digest, int size) {
+            return Arrays.equals(this.digest, digest) && wordlistSize == size;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public long endpointHi(long record) {
+            return buffer(record).getLong(offset(record));
+        }
+
+        @Override
+        public long endpointLo(long record) {
+            return buffer(record).getLong(offset(record) + 8);
+        }
+
+        @Override
+        public int start(long record) {
+            return buffer(record).getInt(offset(record) + 16);
+        }
+
+        private ByteBuffer buffer(long record) {
+            return buffers[(int) (record / RECORDS_PER_BUFFER)];
+        }
+
+        private int offset(long record) {
+            return (int) (record % RECORDS_PER_BUFFER) * RECORD;
+        }
+    }
+
+    /**
+     * Incremental build state in the directory given with --checkpoint.
+     * <p>
+     * Every --segment chains, the chains committed since the last checkpoint are sorted and
+     * written as a segment file, then the progress (next start point, chain count and coverage
+     * bitset) replaces checkpoint.bin. A build started again with the same wordlist and options
+     * resumes from the last checkpoint. Once the build is done, the sorted segments are k-way
+     * merged into a binary table without loading them into memory, and the segments and
+     * checkpoint.bin are removed. The merged table then stands for the finished build: a run
+     * started again with the same options loads it instead of building from scratch.
+     * <p>
+     * Files (big-endian):
+     * <pre>
+     *  checkpoint.bin     magic "RBCP" | version | wordlist MD5 (16 bytes) | wordlist size | chain length | reduction scheme
+     *                     | hash algorithm | max chains | perfect table (0/1) | distinguished point bits | shard
+     *                     | next start point | segment count | chains flushed
+     *                     | chains dropped by the perfect table | coverage bitset, 8 bytes per 64 passwords
+     *  segment-NNNNN.bin  sorted table records in the binary table record format, no header
+     * </pre>
+     */
+    private static final class Checkpoint {
+        private static final int MAGIC = 0x52424350;
+        private static final int VERSION = 5;
+
+        private final Path dir;
+        private final int segment;
+        private int segments;
+        private int next;
+
+        private Checkpoint(Path dir, int segment) {
+            this.dir = dir;
+            this.segment = segment;
+        }
+
+        private boolean exists() {
+            return Files.exists(dir.resolve("checkpoint.bin"));
+        }
+
+        /**
+         * This method restores the coverage and chain count of the last checkpoint.
+         *
+         * @param marked coverage of the passwordList, filled from the checkpoint.
+         * @param chains counts the chains already flushed to segments.
+         * @return false if the checkpoint was taken for another wordlist or with other options.
+         * @throws IOException if the checkpoint cannot be read.
+         */
+        private boolean resume(CoverageSet marked, ChainBuffer chains) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(dir.resolve("checkpoint.bin")), 1 << 16))) {
+                byte[] digest = new byte[16];
+
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("not a rainbow table checkpoint");
+                in.readFully(digest);
+                if (!Arrays.equals(digest, wordlistDigest) || in.readInt() != keyspace || in.readInt() != chainLength
+                        || in.readInt() != reduction || in.readInt() != algorithmId(algorithm) || in.readInt() != maxChains
+                        || in.readInt() != (endpoints != null ? 1 : 0) || in.readInt() != dpBits || in.readInt() != shard) return false;
+
+                next = in.readInt();
+                segments = in.readInt();
+                chains.flushed = in.readLong();
+                long merged = in.readLong();
+                for (int i = 0; i < marked.words(); i++) marked.restore(i, in.readLong());
+                if (endpoints != null) endpoints.merged = merged;
+            }
+
+            // A perfect table has to know every final hash stored so far
+            for (int i = 0; endpoints != null && i < segments; i++) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment(i)), 1 << 16))) {
+                    for (long record = Files.size(segment(i)) / MappedTable.RECORD; record > 0; record--) {
+                        endpoints.add(in.readLong(), in.readLong());
+                        in.readInt();
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * This method flushes the chains committed since the last checkpoint as a sorted segment
+         * and then replaces the checkpoint file. The checkpoint is written to a temporary file and
+         * moved into place, so an interrupted save leaves the previous checkpoint intact.
+         *
+         * @param marked coverage of the passwordList.
+         * @param chains the chains committed since the last checkpoint.
+         * @param next   first start point not yet built.
+         * @throws IOException IO error
+         */
+        private void save(CoverageSet marked, ChainBuffer chains, int next) throws IOException {
+            Files.createDirectories(dir);
+            if (chains.size > 0) {
+                EndpointIndex index = chains.toIndex();
+
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(segment(segments)), 1 << 16))) {
+                    for (int i = 0; i < index.size(); i++) {
+                        out.writeLong(index.endpointHi(i));
+                        out.writeLong(index.endpointLo(i));
+                        out.writeInt(index.start(i));
+                    }
+                }
+                segments++;
+                chains.clear();
+            }
+
+            Path temp = dir.resolve("checkpoint.tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(wordlistDigest);
+                out.writeInt(keyspace);
+                out.writeInt(chainLength);
+                out.writeInt(reduction);
+                out.writeInt(algorithmId(algorithm));
+                out.writeInt(maxChains);
+                out.writeInt(endpoints != null ? 1 : 0);
+                out.writeInt(dpBits);
+                out.writeInt(shard);
+                out.writeInt(next);
+                out.writeInt(segments);
+                out.writeLong(chains.flushed);
+                out.writeLong(endpoints != null ? endpoints.merged : 0);
+                for (int i = 0; i < marked.words(); i++) out.writeLong(marked.word(i));
+            }
+            Files.move(temp, dir.resolve("checkpoint.bin"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.next = next;
+        }
+
+        /**
+         * This method k-way merges the sorted segments into a binary table, streaming one record
+         * per segment at a time, then removes the segments and the checkpoint.
+         *
+         * @param path  binary table file.
+         * @param count number of chains in all segments.
+         * @throws IOException IO error
+         */
+        private void merge(Path path, long count) throws IOException {
+            DataInputStream[] in = new DataInputStream[segments];
+            long[] remaining = new long[segments], hi = new long[segments], lo = new long[segments];
+            int[] start = new int[segments];
+            PriorityQueue<Integer> heads = new PriorityQueue<>(Math.max(1, segments), (a, b) -> {
+                int cmp = Long.compareUnsigned(hi[a], hi[b]);
+                if (cmp == 0) cmp = Long.compareUnsigned(lo[a], lo[b]);
+                return cmp != 0 ? cmp : Integer.compare(start[a], start[b]);
+            });
+
+            try {
+                for (int i = 0; i < segments; i++) {
+                    in[i] = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment(i)), 1 << 16));
+                    remaining[i] = Files.size(segment(i)) / MappedTable.RECORD;
+                    if (nextRecord(in[i], i, remaining, hi, lo, start)) heads.add(i);
+                }
+
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+                    MappedTable.writeHeader(out, count);
+                    while (!heads.isEmpty()) {
+                        int i = heads.poll();
+                        out.writeLong(hi[i]);
+                        out.writeLong(lo[i]);
+                        out.writeInt(start[i]);
+                        if (nextRecord(in[i], i, remaining, hi, lo, start)) heads.add(i);
+                    }
+                }
+            } finally {
+                for (DataInputStream segmentIn : in) if (segmentIn != null) segmentIn.close();
+            }
+            System.out.printf("Merged %d segment(s) into binary table at %s%n", segments, path);
+
+            for (int i = 0; i < segments; i++) Files.delete(segment(i));
+            Files.delete(dir.resolve("checkpoint.bin"));
+        }
+
+        private static boolean nextRecord(DataInputStream in, int i, long[] remaining, long[] hi, long[] lo, int[] start) throws IOException {
+            if (remaining[i]-- == 0) return false;
+            hi[i] = in.readLong();
+            lo[i] = in.readLong();
+            start[i] = in.readInt();
+            return true;
+        }
+
+        private Path segment(int index) {
+            return dir.resolve(String.format("segment-%05d.bin", index));
+        }
+    }
+
+    /**
+     * Build and lookup metrics. They are published as the JMX MBeans Rainbow:type=Build and
+     * Rainbow:type=Lookup (jconsole, VisualVM or any JMX client), and during a build a progress
+     * line is printed every --progress seconds.
+     * <p>
+     * The hot loops only bump a LongAdder per chain or per query. Reductions are derived from
+     * the hashes and chains walked, every chain of n hashes taking n - 1 reductions; coverage, table size, heap, CPU and GC figures are read when reported. The
+     * progress line shows rates over the last interval, with CPU and GC time as a share of it,
+     * so a build starved by the collector stands out from one that is hashing flat out.
+     * <p>
+     * Lookup latencies go into a histogram of power-of-two buckets of microseconds: bucket b
+     * counts lookups under 2^b us and at least 2^(b-1) us.
+     */
+    private static final class Metrics {
+        private static final LongAdder chainsWalked = new LongAdder();
+        private static final LongAdder buildHashes = new LongAdder();
+        private static final LongAdder lookupHashes = new LongAdder();
+        private static final LongAdder[] latency = new LongAdder[32];
+        private static CoverageSet marked;
+        private static ChainBuffer chains;
+        private static ScheduledExecutorService progress;
+        private static long buildStart;
+        private static long buildEnd;
+        private static long buildGcCount;
+        private static long buildWalked;
+        private static long buildHashed;
+        private static long buildGcTime;
+        private static int firstPosition;
+        private static volatile int position;
+        // Last progress sample, only touched by the progress thread
+        private static long sampleTime;
+        private static long sampleWalked;
+        private static long sampleHashes;
+        private static long sampleCpu;
+        private static long sampleGc;
+
+        static {
+            for (int i = 0; i < latency.length; i++) latency[i] = new LongAdder();
+        }
+
+        /**
+         * This method registers the MBeans with the platform MBean server. The program still
+         * runs if it cannot.
+         */
+        private static void register() {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                server.registerMBean(new StandardMBean(new BuildMetrics(), BuildMetricsMBean.class), new ObjectName("Rainbow:type=Build"));
+                server.registerMBean(new StandardMBean(new LookupMetrics(), LookupMetricsMBean.class), new ObjectName("Rainbow:type=Lookup"));
+            } catch (JMException e) {
+                System.err.println("JMX metrics unavailable: " + e.getMessage());
+            }
+        }
+
+        /**
+         * This method starts the metrics of a build and, with --progress, the progress line.
+         *
+         * @param marked coverage of the passwordList.
+         * @param chains the chains being built.
+         * @param from   first start point of this run.
+         */
+        private static void startBuild(CoverageSet marked, ChainBuffer chains, int from) {
+            Metrics.marked = marked;
+            Metrics.chains = chains;
+            firstPosition = position = from;
+            buildStart = sampleTime = System.nanoTime();
+            buildEnd = 0;
+            sampleWalked = buildWalked = chainsWalked.sum();
+            sampleHashes = buildHashed = buildHashes.sum();
+            sampleCpu = cpuTime();
+            sampleGc = buildGcTime = gcTime();
+            buildGcCount = gcCount();
+            if (progressSeconds <= 0) return;
+
+            progress = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            progress.scheduleAtFixedRate(Metrics::printProgress, progressSeconds, progressSeconds, TimeUnit.SECONDS);
+        }
+
+        /**
+         * This method stops the progress line and prints the build totals.
+         */
+        private static void endBuild() {
+            if (progress != null) progress.shutdownNow();
+            progress = null;
+            buildEnd = System.nanoTime();
+
+            long walked = chainsWalked.sum() - buildWalked, hashes = buildHashes.sum() - buildHashed;
+            double seconds = elapsedSeconds();
+            System.out.printf("Built %,d chain(s) in %.2f s: %,d chain(s) walked, %,.0f hashes/s, %,.0f reductions/s, GC %d collection(s) in %d ms.%n",
+                    chains.count(), seconds, walked, hashes / seconds, (hashes - walked) / seconds, gcCount() - buildGcCount, gcTime() - buildGcTime);
+        }
+
+        private static void printProgress() {
+            long now = System.nanoTime(), walked = chainsWalked.sum(), hashes = buildHashes.sum(), cpu = cpuTime(), gc = gcTime();
+            double seconds = (now - sampleTime) / 1e9;
+            MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+
+            System.out.printf("Progress: %,d chain(s), %.2f%% of %,d password(s) covered, start point %,d, %,.0f hashes/s, %,.0f reductions/s, "
+                            + "table %,d KB, heap %,d of %,d MB, CPU %s, GC %.1f%%, ETA %s%n",
+                    chains.count(), coveragePercent(), keyspace, position, (hashes - sampleHashes) / seconds,
+                    (hashes - sampleHashes - walked + sampleWalked) / seconds, tableBytes() >> 10, heap.getUsed() >> 20, heap.getMax() >> 20,
+                    cpu < 0 ? "n/a" : String.format("%.0f%%", (cpu - sampleCpu) / 1e7 / seconds / Runtime.getRuntime().availableProcessors()),
+                    (gc - sampleGc) / 10.0 / seconds, duration(etaSeconds()));
+            sampleTime = now;
+            sampleWalked = walked;
+            sampleHashes = hashes;
+            sampleCpu = cpu;
+            sampleGc = gc;
+        }
+
+        /**
+         * This method records a finished lookup.
+         *
+         * @param hashes hash operations the lookup performed.
+         * @param nanos  time the lookup took.
+         */
+        private static void lookup(long hashes, long nanos) {
+            lookupHashes.add(hashes);
+            latency[Math.min(latency.length - 1, 64 - Long.numberOfLeadingZeros(nanos / 1000))].increment();
+        }
+
+        /**
+         * @param quantile between 0 and 1.
+         * @return the upper bound in microseconds of the histogram bucket holding the quantile, 0 if nothing was looked up.
+         */
+        private static long latencyPercentile(double quantile) {
+            long[] counts = latencyHistogram();
+            long total = LongStream.of(counts).sum(), seen = 0;
+
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (total > 0 && seen >= quantile * total) return 1L << b;
+            }
+            return 0;
+        }
+
+        private static long[] latencyHistogram() {
+            long[] counts = new long[latency.length];
+            for (int b = 0; b < counts.length; b++) counts[b] = latency[b].sum();
+            return counts;
+        }
+
+        private static double elapsedSeconds() {
+            return buildStart == 0 ? 0 : ((buildEnd != 0 ? buildEnd : System.nanoTime()) - buildStart) / 1e9;
+        }
+
+        private static double coveragePercent() {
+            return marked == null ? 0 : marked.cardinality() * 100.0 / keyspace;
+        }
+
+        /**
+         * @return the estimated seconds left from the start points still to walk, -1 if unknown.
+         */
+        private static double etaSeconds() {
+            if (buildEnd != 0) return 0;
+            int done = position - firstPosition;
+            return buildStart == 0 || done <= 0 ? -1 : elapsedSeconds() * (keyspace - position) / done;
+        }
+
+        /**
+         * @return chains in the finished shards and in the shard being built.
+         */
+        private static long chainsBuilt() {
+            return chainCount() + (chains != null && buildEnd == 0 ? chains.count() : 0);
+        }
+
+        private static long tableBytes() {
+            return chainsBuilt() * MappedTable.RECORD;
+        }
+
+        private static String duration(double seconds) {
+            if (seconds < 0) return "n/a";
+            long s = (long) seconds;
+            return String.format("%dh%02dm%02ds", s / 3600, s / 60 % 60, s % 60);
+        }
+
+        /**
+         * @return CPU time of the process in nanoseconds, -1 if the JVM does not report it.
+         */
+        private static long cpuTime() {
+            OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            return os instanceof com.sun.management.OperatingSystemMXBean ? ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime() : -1;
+        }
+
+        private static long gcCount() {
+            long count = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) count += gc.getCollectionCount();
+            return count;
+        }
+
+        private static long gcTime() {
+            long time = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) time += gc.getCollectionTime();
+            return time;
+        }
+    }
+
+    /**
+     * Build metrics published as Rainbow:type=Build, see Metrics. JMX requires the interface
+     * to be public. Rates are averages since the build started.
+     */
+    public interface BuildMetricsMBean {
+        long getChainsBuilt();
+
+        long getChainsWalked();
+
+        long getHashes();
+
+        double getHashesPerSecond();
+
+        long getReductions();
+
+        double getReductionsPerSecond();
+
+        int getPasswords();
+
+        int getPasswordsCovered();
+
+        double getCoveragePercent();
+
+        int getStartPoint();
+
+        double getElapsedSeconds();
+
+        double getEtaSeconds();
+
+        long getTableBytes();
+
+        long getHeapUsedBytes();
+
+        long getHeapMaxBytes();
+
+        long getGcCount();
+
+        long getGcTimeMillis();
+    }
+
+    private static final class BuildMetrics implements BuildMetricsMBean {
+        public long getChainsBuilt() {
+            return Metrics.chainsBuilt();
+        }
+
+        public long getChainsWalked() {
+            return Metrics.chainsWalked.sum();
+        }
+
+        public long getHashes() {
+            return Metrics.buildHashes.sum();
+        }
+
+        public double getHashesPerSecond() {
+            double seconds = Metrics.elapsedSeconds();
+            return seconds == 0 ? 0 : getHashes() / seconds;
+        }
+
+        public long getReductions() {
+            return getHashes() - getChainsWalked();
+        }
+
+        public double getReductionsPerSecond() {
+            double seconds = Metrics.elapsedSeconds();
+            return seconds == 0 ? 0 : getReductions() / seconds;
+        }
+
+        public int getPasswords() {
+            return keyspace;
+        }
+
+        public int getPasswordsCovered() {
+            return Metrics.marked == null ? 0 : Metrics.marked.cardinality();
+        }
+
+        public double getCoveragePercent() {
+            return Metrics.coveragePercent();
+        }
+
+        public int getStartPoint() {
+            return Metrics.position;
+        }
+
+        public double getElapsedSeconds() {
+            return Metrics.elapsedSeconds();
+        }
+
+        public double getEtaSeconds() {
+            return Metrics.etaSeconds();
+        }
+
+        public long getTableBytes() {
+            return Metrics.tableBytes();
+        }
+
+        public long getHeapUsedBytes() {
+            return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        }
+
+        public long getHeapMaxBytes() {
+            return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+        }
+
+        public long getGcCount() {
+            return Metrics.gcCount();
+        }
+
+        public long getGcTimeMillis() {
+            return Metrics.gcTime();
+        }
+    }
+
+    /**
+     * Lookup metrics published as Rainbow:type=Lookup, see Metrics. Counted by crack, so a
+     * result cache hit is counted as a cache hit only. The latency histogram holds a count
+     * per power-of-two bucket of microseconds.
+     */
+    public interface LookupMetricsMBean {
+        long getLookups();
+
+        long getHashes();
+
+        double getHashesPerLookup();
+
+        long getFalseAlarms();
+
+        long getMaxFalseAlarms();
+
+        long getFilterRejects();
+
+        long getCacheHits();
+
+        long getCacheMisses();
+
+        long[] getLatencyHistogram();
+
+        long getLatencyP50Micros();
+
+        long getLatencyP90Micros();
+
+        long getLatencyP99Micros();
+    }
+
+    private static final class LookupMetrics implements LookupMetricsMBean {
+        public long getLookups() {
+            return lookups.sum();
+        }
+
+        public long getHashes() {
+            return Metrics.lookupHashes.sum();
+        }
+
+        public double getHashesPerLookup() {
+            long count = getLookups();
+            return count == 0 ? 0 : (double) getHashes() / count;
+        }
+
+        public long getFalseAlarms() {
+            return falseAlarms.sum();
+        }
+
+        public long getMaxFalseAlarms() {
+            return maxFalseAlarms.get();
+        }
+
+        public long getFilterRejects() {
+            return filterRejects.sum();
+        }
+
+        public long getCacheHits() {
+            return results == null ? 0 : results.hits.sum();
+        }
+
+        public long getCacheMisses() {
+            return results == null ? 0 : results.misses.sum();
+        }
+
+        public long[] getLatencyHistogram() {
+            return Metrics.latencyHistogram();
+        }
+
+        public long getLatencyP50Micros() {
+            return Metrics.latencyPercentile(0.5);
+        }
+
+        public long getLatencyP90Micros() {
+            return Metrics.latencyPercentile(0.9);
+        }
+
+        public long getLatencyP99Micros() {
+            return Metrics.latencyPercentile(0.99);
+        }
+    }
+
+    /**
+     * A long-running lookup service on a local port, so a table is built or loaded once
+     * (use --load for a table saved with --save) and then answers any number of queries.
+     * <p>
+     * Requests are handled on virtual threads when the JVM has them (Java 21+), otherwise on a
+     * fixed pool of platform threads. Every lookup runs against the shared, read-only table,
+     * through the result cache.
+     * <pre>
+     *  GET  /crack?hash=HEX  {"hash":"HEX","password":"..."} or "password":null; 400 for an invalid hash
+     *  POST /crack           one hash per line, answered with "hash&lt;TAB&gt;password", "hash&lt;TAB&gt;NOTFOUND"
+     *                        or "hash&lt;TAB&gt;INVALID" per line, like --batch
+     *  GET  /stats           lookup, cache, filter, false alarm, hash operation and latency counters as JSON
+     * </pre>
+     */
+    private static final class Service {
+        /**
+         * This method starts the service. It returns once the server is listening; the server
+         * threads keep the program running until it is stopped.
+         *
+         * @param port local port to listen on.
+         */
+        private static void run(int port) {
+            // Headers and body are separate writes; without TCP_NODELAY every keep-alive response waits for a delayed ACK
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+            try {
+                HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+                String executor = executor(server);
+
+                server.createContext("/crack", Service::crack);
+                server.createContext("/stats", Service::stats);
+                server.start();
+                System.out.printf("Serving %s lookups on http://%s:%d/crack with %s.%n",
+                        algorithm.name(), server.getAddress().getHostString(), server.getAddress().getPort(), executor);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+
+        /**
+         * This method gives the server a virtual thread per request if the JVM supports it,
+         * looked up reflectively so the program still compiles and runs on older JVMs.
+         *
+         * @param server the HTTP server.
+         * @return a description of the executor.
+         */
+        private static String executor(HttpServer server) {
+            try {
+                server.setExecutor((ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null));
+                return "virtual threads";
+            } catch (ReflectiveOperationException e) {
+                int workers = Math.max(8, 4 * Runtime.getRuntime().availableProcessors());
+                server.setExecutor(Executors.newFixedThreadPool(workers));
+                return workers + " platform threads";
+            }
+        }
+
+        private static void crack(HttpExchange exchange) throws IOException {
+            try {
+                if (exchange.getRequestMethod().equals("GET")) {
+                    String inputHex = parameter(exchange.getRequestURI().getRawQuery(), "hash").trim().toLowerCase();
+
+                    if (!hexCheck(inputHex)) {
+                        respond(exchange, 400, "application/json", "{\"error\":\"invalid hash\"}");
+                        return;
+                    }
+                    String password = lookup(inputHex);
+                    respond(exchange, 200, "application/json",
+                            "{\"hash\":\"" + inputHex + "\",\"password\":" + (password != null ? json(password) : "null") + "}");
+                } else if (exchange.getRequestMethod().equals("POST")) {
+                    BufferedReader br = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), java.nio.charset.StandardCharsets.UTF_8));
+                    StringBuilder body = new StringBuilder();
+
+                    for (String line = br.readLine(); line != null; line = br.readLine()) {
+                        String inputHex = line.trim().toLowerCase();
+                        if (inputHex.isEmpty()) continue;
+
+                        boolean valid = hexCheck(inputHex);
+                        String password = valid ? lookup(inputHex) : null;
+                        body.append(inputHex).append('\t').append(!valid ? "INVALID" : password != null ? password : "NOTFOUND").append('\n');
+                    }
+                    respond(exchange, 200, "text/plain; charset=utf-8", body.toString());
+                } else {
+                    respond(exchange, 405, "text/plain; charset=utf-8", "GET or POST\n");
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private static void stats(HttpExchange exchange) throws IOException {
+            try {
+                respond(exchange, 200, "application/json", String.format(
+                        "{\"algorithm\":\"%s\",\"shards\":%d,\"chains\":%d,\"chainLength\":%d,\"lookups\":%d,"
+                                + "\"cacheHits\":%d,\"cacheMisses\":%d,\"cached\":%d,\"filterRejects\":%d,"
+                                + "\"falseAlarms\":%d,\"maxFalseAlarms\":%d,\"hashes\":%d,\"latencyP50Micros\":%d,\"latencyP99Micros\":%d}",
+                        algorithm.name(), shards.length, chainCount(), chainLength, lookups.sum(),
+                        results != null ? results.hits.sum() : 0, results != null ? results.misses.sum() : 0, results != null ? results.size() : 0,
+                        filterRejects.sum(), falseAlarms.sum(), maxFalseAlarms.get(),
+                        Metrics.lookupHashes.sum(), Metrics.latencyPercentile(0.5), Metrics.latencyPercentile(0.99)));
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private static void respond(HttpExchange exchange, int status, String type, String body) throws IOException {
+            byte[] bytes = body.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+
+            exchange.getResponseHeaders().set("Content-Type", type);
+            exchange.sendResponseHeaders(status, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        }
+
+        private static String parameter(String query, String name) throws IOException {
+            if (query != null) {
+                for (String pair : query.split("&")) {
+                    if (pair.startsWith(name + "=")) return URLDecoder.decode(pair.substring(name.length() + 1), "UTF-8");
+                }
+            }
+            return "";
+        }
+
+        private static String json(String value) {
+            StringBuilder quoted = new StringBuilder("\"");
+
+            for (char c : value.toCharArray()) {
+                if (c == '"' || c == '\\') quoted.append('\\').append(c);
+                else if (c < 0x20) quoted.append(String.format("\\u%04x", (int) c));
+                else quoted.append(c);
+            }
+            return quoted.append('"').toString();
+        }
+    }
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.IntStream;
 
 /**
  * This program runs a simulation of a system of Email System IDS.
@@ -13,39 +15,33 @@ import java.util.*;
  * 1: Consistency errors in configuration file
  * 2: File not found error
  * </p>
+ * <p>
+ * Usage: java IDS.java Events.txt Stats.txt DAYS [--log=on|off] [--seed=N] [--threads=N]
+ * </p>
  *
  * <p>
- * 2D array map for storing of event data:           2D array map for storing of stats data:
- *    _____0________1______2_________3_________4___      _____0________1______2______
- * 0 |EventName1 | CD | Minimum | Maximum | Weight|   0 |EventName1 | Mean | StdDev |
- *   |============================================|     |===========================|
- * 1 |EventName2 | CD | Minimum | Maximum | Weight|   1 |EventName2 | Mean | StdDev |
- *   |============================================|     |===========================|
- * 2 |EventName3 | CD | Minimum | Maximum | Weight|   2 |EventName3 | Mean | StdDev |
+ * Table of event specs (EventSpec[]):               Table of event stats (EventStats[]):
+ *    _____name_____type___min_______max_______weight      _____name_____mean___stdDev_
+ * 0 |EventName1 | C/D | Minimum | Maximum | Weight|   0 |EventName1 | Mean | StdDev |
  *   |============================================|     |===========================|
- * 3 |EventName4 | CD | Minimum | Maximum | Weight|   3 |EventName4 | Mean | StdDev |
+ * 1 |EventName2 | C/D | Minimum | Maximum | Weight|   1 |EventName2 | Mean | StdDev |
  *   |============================================|     |===========================|
- * 4 |EventName5 | CD | Minimum | Maximum | Weight|   4 |EventName5 | Mean | StdDev |
+ * x |EventNameX | C/D | Minimum | Maximum | Weight|   x |EventNameX | Mean | StdDev |
  *   |============================================|     |===========================|
  * </p>
  * <p>
- * 2D array map of logging data:
+ * The day x event matrix of baseline data is one double[] of days * events values, a day's
+ * events next to each other: value(day, event) = matrix[day * events + event].
  * <p>
  * y = Random generated value
  * <p>
- * _____0________D1______D2______D3______Dx____
- * 0 |Event      | Day 1 | Day 2 | Day 3 | Day x |
- * |===========================================|
- * 1 |EventName1 |   y   |   y   |   y   |   y   |
- * |===========================================|
- * 2 |EventName2 |   y   |   y   |   y   |   y   |
- * |===========================================|
- * 3 |EventName3 |   y   |   y   |   y   |   y   |
- * |===========================================|
- * 4 |EventName4 |   y   |   y   |   y   |   y   |
- * |===========================================|
- * 5 |EventName5 |   y   |   y   |   y   |   y   |
- * |===========================================|
+ *    _E1__E2__E3__Ex_
+ * D1|_y_|_y_|_y_|_y_|
+ * D2|_y_|_y_|_y_|_y_|
+ * Dx|_y_|_y_|_y_|_y_|
+ * </p>
+ * <p>
+ * Numbers are only formatted as text when a log or report file is written.
  * </p>
  */
 
@@ -55,17 +51,19 @@ public class IDS {
     public static final String GREEN = "\u001B[32m";
     public static final String RESET = "\u001B[0m";
     public static final String RED = "\u001B[31m";
-    private static final Random rand = new Random();
+    private static final int blockDays = 256;
+    private static SplittableRandom random;
+    private static ForkJoinPool pool;
+    private static int threads = 1;
     private static final int eDataField = 5;
     private static final int sDataField = 3;
-    private static String[][] eventArr;
-    private static String[][] statsArr;
-    private static String[][] weights;
+    private static EventSpec[] events;
+    private static EventStats[] baseLineStats;
     private static double[] alertDailyCounter;
-    private static double[][] anomalyArr;
     private static int statsMonitor = 0;
     private static int eventMonitor = 0;
     private static int days;
+    private static boolean logging = true;
 
     /**
      * <p>
@@ -80,6 +78,10 @@ public class IDS {
      * 4) If the file is found, but the Events.txt and/or Stats.txt is empty, the program will exit with code 1. <br>
      * 5) If the file is found, but the Events.txt and/or Stats.txt is not consistent, the program will exit with code 1. <br>
      * </p>
+     * <p>
+     * --log=off skips writing the simulated baseLineData log files.
+     * --seed=N makes the simulation reproducible; the same seed gives the same data for any --threads=N.
+     * </p>
      * @param args CLI arguments
      */
     public static void main(String[] args) {
@@ -88,6 +90,12 @@ public class IDS {
         File fileStats = new File(args[1]);
         art();
         days = Integer.parseInt(args[2]);
+        logging = !option(args, "--log", "on").equals("off");
+        long seed = Long.parseLong(option(args, "--seed", String.valueOf(new SplittableRandom().nextLong())));
+        random = new SplittableRandom(seed);
+        threads = Integer.parseInt(option(args, "--threads", "1"));
+        if (threads > 1) pool = new ForkJoinPool(threads);
+        System.out.printf("[*] Simulation seed: %d (--seed=%d repeats this run), %d thread(s)%n", seed, seed, threads);
         if (days < 1) {
             System.out.println(RED + "[!!] Number of days must be more than 0!" + RESET);
             System.exit(1);
@@ -99,20 +107,15 @@ public class IDS {
                 if (filter()) {
                     System.out.println(GREEN + "[+] Files integrity have been verified!" + RESET);
 
-                    // copy statsArr to another array
-                    String[][] statsArrCopy = new String[statsArr.length][statsArr[0].length];
-                    for (int i = 0; i < statsArr.length; i++) {
-                        System.arraycopy(statsArr[i], 0, statsArrCopy[i], 0, statsArr[0].length);
-                    }
-
-                    activityEngine("defaultBaseLineData.txt", statsArrCopy);
-                    analysisEngine("defaultBaseLineData.txt", "defaultDayTotals.txt", "defaultBaseLineStats.txt");
+                    Simulation simulation = activityEngine("defaultBaseLineData.txt", baseLineStats);
+                    analysisEngine(simulation, "defaultDayTotals.txt", "defaultBaseLineStats.txt");
                     alertEngine(kb);
                 } else {
                     System.out.println(RED + "[!!] Early termination due to consistency checks" + RESET);
                     System.exit(1);
                 }
                 kb.close();
+                LogWriter.await();
                 System.out.println("Program terminated. Exit code: 0");
                 System.exit(0);
             } catch (NumberFormatException | IOException e) {
@@ -124,7 +127,8 @@ public class IDS {
                 System.exit(1);
             }
         } else {
-            System.out.printf(RED + "[!!] Early termination due to %s or %s does not exist or is empty OR Days value is less than 1!" + RESET, fileEvent.getName(), fileStats.getName());
+            System.out.printf(RED + "[!!] Early termination due to %s or %s does not exist or is empty OR Days value is less than 1!" + RESET,
+                    fileEvent.getName(), fileStats.getName());
             System.exit(2);
         }
     }
@@ -231,11 +235,15 @@ public class IDS {
      * 6) Ensure that minimum value is not greater than the maximum value in the Events.txt<br>
      * 7) Ensure that Stats.txt Mean value is not greater than the Maximum value in the Events.txt<br>
      * </p>
+     * <p>
+     * The checks run on the text fields; once they pass, the events and stats are parsed
+     * into the events and baseLineStats tables.
+     * </p>
      */
     private static boolean filter() {
         int satisfied = 0;
-        eventArr = new String[eventMonitor][eDataField];
-        statsArr = new String[statsMonitor][sDataField];
+        String[][] eventArr = new String[eventMonitor][eDataField];
+        String[][] statsArr = new String[statsMonitor][sDataField];
 
         // Ensure that Stats.txt does not contain any invalid value such as ::
         boolean invalidValue = sEventLists.stream().anyMatch(s -> s.contains("::"));
@@ -361,10 +369,12 @@ public class IDS {
         }
         satisfied++;
 
-        weights = new String[eventMonitor][2];
+        events = new EventSpec[eventMonitor];
+        baseLineStats = new EventStats[statsMonitor];
         for (int i = 0; i < eventMonitor; i++) {
-            weights[i][0] = eventArr[i][0];
-            weights[i][1] = eventArr[i][4];
+            events[i] = new EventSpec(eventArr[i][0], Type.valueOf(eventArr[i][1]), Double.parseDouble(eventArr[i][2]),
+                    Double.parseDouble(eventArr[i][3]), Double.parseDouble(eventArr[i][4]));
+            baseLineStats[i] = new EventStats(statsArr[i][0], Double.parseDouble(statsArr[i][1]), Double.parseDouble(statsArr[i][2]));
         }
 
         return satisfied == 4;
@@ -382,148 +392,133 @@ public class IDS {
      * <p>
      * <br>
      * <p>EVENT_NAME:Mean:Standard Dev:</p>
+     * <p>
+     * Continuous values are rounded to 2 decimal places as they are generated, so the matrix
+     * holds exactly what the log file records.
+     * </p>
+     * <p>
+     * The matrix is handed straight to analysisEngine; the log file is only a side output,
+     * written by the LogWriter thread while the analysis runs.
+     * </p>
+     * <p>
+     * The days are cut into blocks of blockDays, and every block draws from its own
+     * SplittableRandom, split off the seeded generator in block order before any block runs.
+     * The blocks are then simulated on the ForkJoinPool when --threads is above 1, so the data
+     * depends on the seed only, never on the number of threads or how the blocks are scheduled.
+     * </p>
+     * <p>
+     * Each event gets a Sampler with its distribution parameters worked out once per run, and a
+     * block is filled one event column at a time.
+     * </p>
+     * <p>
+     * The day totals, the daily anomaly scores and each event's mean and variance are
+     * accumulated as the values are drawn. Every block keeps a RunningStats per event, and those
+     * partials are merged in block order once all blocks are done, so the statistics do not
+     * depend on the number of threads either.
+     * </p>
+     * <p>
+     * The matrix itself is still kept, since the log and the saved result report list every
+     * value of every event, a row per event.
+     * </p>
+     *
+     * @param baseLineDataFile log file to write.
+     * @param stats            mean and stdDev to simulate each event with.
+     * @return the simulated matrix, day totals, daily anomaly scores and statistics.
      */
-    private static void activityEngine(String baseLineDataFile, String[][] statsArr) {
+    private static Simulation activityEngine(String baseLineDataFile, EventStats[] stats) {
         System.out.println("[*] Activity Simulation Engine is running...");
-        String[][] baseLineData = new String[eDataField + 1][days + 1];
-        baseLineData[0][0] = "Event(s)";
-
-        for (int i = 1; i <= days; i++)
-            baseLineData[0][i] = "D" + i;
-        for (int i = 0; i < eventMonitor; i++)
-            baseLineData[i + 1][0] = eventArr[i][0];
-
-        for (int day = 1; day < days + 1; day++) {
-            for (int CD = 0; CD < eventMonitor; CD++) {
-                for (int eventCounter = 0; eventCounter < eventMonitor; eventCounter++) {
-                    if (eventArr[CD][eventCounter].equalsIgnoreCase("C"))
-                        baseLineData[CD + 1][day] = String.format("%.2f", generateC(Double.parseDouble(statsArr[CD][1]), Double.parseDouble(statsArr[CD][2])));
-                    if (eventArr[CD][eventCounter].equalsIgnoreCase("D"))
-                        baseLineData[CD + 1][day] = String.valueOf((generateD(Double.parseDouble(statsArr[CD][1]), Double.parseDouble(statsArr[CD][2]))));
-                }
+        Simulation simulation = new Simulation(matrix(), new double[days], new double[days], new RunningStats[eventMonitor]);
+        Sampler[] samplers = new Sampler[eventMonitor];
+        for (int event = 0; event < eventMonitor; event++) samplers[event] = Sampler.of(events[event].type, stats[event]);
+        int blocks = (days + blockDays - 1) / blockDays;
+        SplittableRandom[] streams = new SplittableRandom[blocks];
+        for (int block = 0; block < blocks; block++) streams[block] = random.split();
+        RunningStats[] partials = new RunningStats[blocks * eventMonitor];
+
+        if (pool != null && blocks > 1) {
+            try {
+                pool.submit(() -> IntStream.range(0, blocks).parallel()
+                        .forEach(block -> simulate(simulation, samplers, block, streams[block], partials))).get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException(e);
             }
+        } else {
+            for (int block = 0; block < blocks; block++) simulate(simulation, samplers, block, streams[block], partials);
         }
 
-        try {
-            BufferedWriter bw = new BufferedWriter(new FileWriter(baseLineDataFile));
-            for (String[] strings : baseLineData) {
-                bw.write(String.format("%-20s", strings[0]) + ": ");
-                for (int j = 1; j < strings.length; j++)
-                    bw.write(String.format("%-7s", strings[j]) + " ");
-                bw.newLine();
+        for (int event = 0; event < eventMonitor; event++) {
+            RunningStats eventStats = simulation.stats[event] = new RunningStats();
+            for (int block = 0; block < blocks; block++) eventStats.merge(partials[block * eventMonitor + event]);
+        }
+
+        if (logging) LogWriter.submit(baseLineDataFile, simulation.data, days);
+        return simulation;
+    }
+
+    /**
+     * This method simulates one block of days into the matrix, one event column at a time.
+     * Each column is drawn into a buffer, then copied into the matrix while it is added to
+     * the day totals, the daily anomaly scores and the block's RunningStats for the event.
+     *
+     * @param simulation receives the values, day totals and daily anomaly scores.
+     * @param samplers   sampler of each event.
+     * @param block      block number, covering days block * blockDays up to the next block.
+     * @param stream     the block's own random generator.
+     * @param partials   receives the block's RunningStats of each event.
+     */
+    private static void simulate(Simulation simulation, Sampler[] samplers, int block, SplittableRandom stream, RunningStats[] partials) {
+        int first = block * blockDays, count = Math.min(days, first + blockDays) - first;
+        double[] column = new double[count];
+
+        for (int event = 0; event < eventMonitor; event++) {
+            samplers[event].fill(column, 0, 1, count, stream);
+            RunningStats eventStats = partials[block * eventMonitor + event] = new RunningStats();
+
+            for (int i = 0; i < count; i++) {
+                double value = column[i];
+                simulation.data[(first + i) * eventMonitor + event] = value;
+                simulation.dayTotals[first + i] += value;
+                simulation.dayScores[first + i] += anomaly(event, value);
+                eventStats.add(value);
             }
-            bw.flush();
-            bw.close();
-            System.out.println(GREEN + "[+] Log file successfully generated to " + baseLineDataFile + "!" + RESET);
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
     /**
      * <p>
      * It will measure baseLineStats data for event and determine statistics associated with baseLineStats. <br>
-     * 1) Compute the total for each event for each day E.g. (Day1eventName1 + Day1eventName2 + Day1eventName3)<br>
-     * 2) Compute the overall mean for each event. E.g. (Day1eventName1 + Day2eventName1 + Day3eventName1) / 3<br>
-     * 3) Compute the overall stdDev for each event. E.g. (Day1eventName1 - Day2eventName1)^2 + (Day1eventName1 - Day3eventName1)^2 + (Day2eventName1 - Day3eventName1)^2 / 3<br>
-     * 4) Output the overall mean and overall stdDev for each event and save it as baseLineStats.txt<br>
-     * 5) Output the total for each event for each day and save it as dayTotal.txt<br>
+     * 1) Output the total of all events for each day E.g. (Day1eventName1 + Day1eventName2 + Day1eventName3) and save it as dayTotal.txt<br>
+     * 2) Output the overall mean and overall stdDev for each event and save it as baseLineStats.txt<br>
+     * 3) Compute the anomaly score of each event for each day, and of each day<br>
+     * </p>
+     * <p>
+     * The day totals, daily anomaly scores, means and stdDevs were accumulated by activityEngine
+     * as it drew the values, so the matrix is not read at all. It never waits for or reads back
+     * the log file.
      * </p>
+     *
+     * @param simulation        day totals, daily anomaly scores and statistics from activityEngine.
+     * @param dayTotalFile      day totals report to write.
+     * @param baseLineStatsFile mean and stdDev report to write.
      */
-    private static void analysisEngine(String baseLineDataFile, String dayTotalFile, String baseLineStatsFile) {
-        ArrayList<String> logBaseLineData = new ArrayList<>();
-        String[][] baseLineData;
-
+    private static void analysisEngine(Simulation simulation, String dayTotalFile, String baseLineStatsFile) {
         try {
             System.out.println("[*] Analysis Engine is running...");
-            BufferedReader br = new BufferedReader(new FileReader(baseLineDataFile));
-            String line;
-            int lineCounter = 0;
-
-            while ((line = br.readLine()) != null) {
-                if (lineCounter != 0) logBaseLineData.add(line);
-                lineCounter++;
-            }
-
-            baseLineData = new String[logBaseLineData.size()][days + 1];
-            for (int i = 0; i < baseLineData.length; i++) {
-                StringTokenizer tokenizer = new StringTokenizer(logBaseLineData.get(i), ":");
-                baseLineData[i][0] = tokenizer.nextToken();
-                tokenizer = new StringTokenizer(tokenizer.nextToken(), " ");
-                for (int j = 1; j < baseLineData[i].length; j++) {
-                    baseLineData[i][j] = tokenizer.nextToken();
-                }
-            }
-
             BufferedWriter bw = new BufferedWriter(new FileWriter(dayTotalFile));
-            double dayTotal = 0.0;
-            for (int i = 1; i < days + 1; i++) {
-                for (String[] strings : baseLineData) {
-                    dayTotal += Double.parseDouble(strings[i]);
-                }
-                bw.write(String.format("Day %d : %.2f \n", i, dayTotal));
-                dayTotal = 0.0;
-            }
+            for (int day = 0; day < days; day++)
+                bw.write(String.format("Day %d : %.2f \n", day + 1, simulation.dayTotals[day]));
             bw.flush();
             bw.close();
             System.out.println(GREEN + "[+] Day totals successfully generated to " + dayTotalFile + "!" + RESET);
 
             bw = new BufferedWriter(new FileWriter(baseLineStatsFile));
-            for (String[] str : baseLineData) {
-                double mean;
-                double total = 0.0, variance = 0.0;
-
-                for (int i = 1; i < str.length; i++)
-                    total += Double.parseDouble(str[i]);
-
-                mean = total / days;
-
-                for (int i = 1; i < str.length; i++)
-                    variance += Math.pow((Double.parseDouble(str[i]) - mean), 2);
-                bw.write(String.format("%20s: %7.2f %7.2f \n", str[0], mean, Math.sqrt(variance / days)));
-            }
+            for (int event = 0; event < eventMonitor; event++)
+                bw.write(String.format("%-20s: %7.2f %7.2f \n", events[event].name, simulation.stats[event].mean, simulation.stats[event].stdDev()));
             bw.flush();
             bw.close();
             System.out.println(GREEN + "[+] Statistics successfully generated to " + baseLineStatsFile + "!" + RESET);
 
-            anomalyArr = new double[eventMonitor][days];
-            alertDailyCounter = new double[days];
-            String[][] dailyValue = new String[eventMonitor][days];
-
-            File fileRead = new File(baseLineDataFile);
-            int row = 0;
-            String input;
-
-            if (fileRead.exists() && fileRead.length() > 0) {
-                br = new BufferedReader(new FileReader(fileRead));
-                input = br.readLine();
-                while(input != null) {
-                    if (row == 0) {
-                        row++;
-                        input = br.readLine();
-                        continue;
-                    }
-
-                    System.arraycopy(input.split("\\W\\D+"), 1, dailyValue[row - 1], 0, days);
-                    input = br.readLine();
-                    row++;
-                }
-            }
-
-            for (int i = 0; i < days; i++) {
-                for (int j = 0; j < eventMonitor; j++) {
-                    double dailyValueDouble = Double.parseDouble(dailyValue[j][i]);
-                    double dailyMeanDouble = Double.parseDouble(statsArr[j][1]);
-                    double dailyStdDevDouble = Double.parseDouble(statsArr[j][2]);
-                    anomalyArr[j][i] = (Math.abs(dailyValueDouble - dailyMeanDouble) / dailyStdDevDouble) * Double.parseDouble(weights[j][1]);
-                }
-            }
-
-            for (int i = 0; i < days; i++)
-                for (int j = 0; j < eventMonitor; j++)
-                    alertDailyCounter[i] += anomalyArr[j][i];
-
-            br.close();
+            alertDailyCounter = simulation.dayScores;
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -549,13 +544,13 @@ public class IDS {
      * @param kb user input to do test on the IDS
      */
     private static void alertEngine(Scanner kb) {
-        String[][] liveStatsArr = new String[statsMonitor][sDataField];
+        EventStats[] liveStats = new EventStats[statsMonitor];
         String input;
         int threshold = 0;
         int run = 0;
 
         for (int i = 0; i < eventMonitor; i++) {
-            threshold += (int) Double.parseDouble(weights[i][1]);
+            threshold += (int) events[i].weight;
         }
         threshold *= 2;
 
@@ -588,7 +583,7 @@ public class IDS {
                     input = br.readLine();
                     while (input != null) {
                         String[] split = input.split(":");
-                        System.arraycopy(split, 0, liveStatsArr[lineCounter], 0, split.length);
+                        liveStats[lineCounter] = new EventStats(split[0], Double.parseDouble(split[1]), Double.parseDouble(split[2]));
                         lineCounter++;
                         input = br.readLine();
                         if (lineCounter == newStatsMonitored && input == null) {
@@ -606,8 +601,8 @@ public class IDS {
                     System.exit(2);
                 }
 
-                activityEngine("baseLineData" + run + ".txt", liveStatsArr);
-                analysisEngine("baseLineData" + run + ".txt", "dayTotals" + run + ".txt", "baseLineStats" + run + ".txt");
+                Simulation simulation = activityEngine("baseLineData" + run + ".txt", liveStats);
+                analysisEngine(simulation, "dayTotals" + run + ".txt", "baseLineStats" + run + ".txt");
 
                 for (int i = 0; i < days; i++) {
                     if (alertDailyCounter[i] < threshold) {
@@ -638,7 +633,7 @@ public class IDS {
                     for (int i = 0; i < eventMonitor; i++) {
                         bw.write(String.format("Event %s: ", i + 1));
                         for (int j = 0; j < days; j++) {
-                            bw.write(String.format("%-6.2f ", anomalyArr[i][j]));
+                            bw.write(String.format("%-6.2f ", anomaly(i, simulation.data[j * eventMonitor + i])));
                         }
                         bw.newLine();
                     }
@@ -676,27 +671,209 @@ public class IDS {
         System.out.println("===================================================================================");
     }
 
+    /**
+     * This method returns the anomaly score of one simulated value: (Abs(value - mean) / stdDev) * weight,
+     * against the event's baseLineStats.
+     *
+     * @param event event number.
+     * @param value simulated value of the event.
+     * @return the anomaly score.
+     */
+    private static double anomaly(int event, double value) {
+        return (Math.abs(value - baseLineStats[event].mean) / baseLineStats[event].stdDev) * events[event].weight;
+    }
+
+    /**
+     * This method allocates a day x event matrix for the current number of days.
+     * Exits with code 1 if days * events does not fit in one array.
+     *
+     * @return a zeroed matrix of days * eventMonitor values.
+     */
+    private static double[] matrix() {
+        if ((long) days * eventMonitor > Integer.MAX_VALUE - 8) {
+            System.out.println(RED + "[!!] Number of days x monitored events is too large!" + RESET);
+            System.exit(1);
+        }
+        return new double[days * eventMonitor];
+    }
+
+    private static String option(String[] args, String name, String defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(name + "=")) return arg.substring(name.length() + 1);
+        }
+        return defaultValue;
+    }
+
+    private static void art() {
+        System.out.println("++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
+        System.out.println(" _____  _____     ____"); 
+        System.out.println("|_   _||  __ \\  / ___|         ");
+        System.out.println("  | |  | |  | || (___           ");
+        System.out.println("  | |  | |  | | \\___ \\        ");
+        System.out.println(" _| |_ | |__| | ____) |        CSCI 262, System Security");
+        System.out.println("|_____||_____/ |_____/         Email System Modeller & Intrusion Detection System.");
+        System.out.println("++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
+    }
+
+    /**
+     * C - continuous event, D - discrete event.
+     */
+    private enum Type {C, D}
+
     /**
      * <p>
-     * To generate a number which follows normal distribution by using Gaussian.
+     * One line of Events.txt: EVENT_NAME:[CD]:Minimum:Maximum:Weight
+     * </p>
+     */
+    private static final class EventSpec {
+        private final String name;
+        private final Type type;
+        private final double min;
+        private final double max;
+        private final double weight;
+
+        private EventSpec(String name, Type type, double min, double max, double weight) {
+            this.name = name;
+            this.type = type;
+            this.min = min;
+            this.max = max;
+            this.weight = weight;
+        }
+
+        /**
+         * This method formats a value the way this event is recorded: 2 decimal places
+         * for continuous events, an integer for discrete ones.
+         *
+         * @param value a value of this event.
+         * @return the value as text.
+         */
+        private String format(double value) {
+            return type == Type.C ? String.format("%.2f", value) : String.valueOf((long) value);
+        }
+    }
+
+    /**
+     * <p>
+     * One line of Stats.txt or a live data file: EVENT_NAME:Mean:Standard Dev:
      * </p>
+     */
+    private static final class EventStats {
+        private final String name;
+        private final double mean;
+        private final double stdDev;
+
+        private EventStats(String name, double mean, double stdDev) {
+            this.name = name;
+            this.mean = mean;
+            this.stdDev = stdDev;
+        }
+    }
+
+    /**
      * <p>
-     * nextGaussian() returns a random number from a Gaussian distribution with mean 0 and standard deviation 1. <br>
-     * Scaling the random generated value with Standard Deviation then adding the mean <br>
-     * will generate a value which follows normal distribution, producing statistics <br>
-     * approximately consistent with given Stats.txt values. <br>
+     * The output of activityEngine: the day x event matrix, the total and anomaly score of
+     * each day and the statistics of each event.
      * </p>
-     *
-     * @param mean   mean of the distribution
-     * @param stdDev standard deviation of the distribution
-     * @return a random integer value which follows normal distribution
      */
-    private static int generateD(double mean, double stdDev) {
-        int r;
-        do {
-            r = (int) Math.floor((rand.nextGaussian() * stdDev) + mean);
-        } while (r < 0);
-        return r;
+    private static final class Simulation {
+        private final double[] data;
+        private final double[] dayTotals;
+        private final double[] dayScores;
+        private final RunningStats[] stats;
+
+        private Simulation(double[] data, double[] dayTotals, double[] dayScores, RunningStats[] stats) {
+            this.data = data;
+            this.dayTotals = dayTotals;
+            this.dayScores = dayScores;
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * <p>
+     * Mean and variance of a stream of values, without keeping the values. Each part of the
+     * stream, e.g. a block of days, is summed up in one pass by Welford's update (add), and the
+     * parts are combined with merge (Chan et al.), which gives the same mean and variance as
+     * one pass over all of the values.
+     * </p>
+     * <p>
+     * Unlike sum and sum of squares, the running mean and sum of squared deviations (m2) do not
+     * lose the variance to cancellation when the mean is large next to the stdDev.
+     * </p>
+     */
+    private static final class RunningStats {
+        private long count;
+        private double mean;
+        private double m2;
+
+        /**
+         * This method adds one value.
+         *
+         * @param value value to add.
+         */
+        private void add(double value) {
+            double delta = value - mean;
+            mean += delta / ++count;
+            m2 += delta * (value - mean);
+        }
+
+        /**
+         * This method merges the statistics of another part of the stream.
+         *
+         * @param other statistics of the other part.
+         */
+        private void merge(RunningStats other) {
+            if (other.count == 0) return;
+            long total = count + other.count;
+            double delta = other.mean - mean;
+            mean += delta * other.count / total;
+            m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+            count = total;
+        }
+
+        /**
+         * This method returns the population stdDev, sqrt(m2 / count), as baseLineStats reports it.
+         *
+         * @return the stdDev, 0 if there are no values.
+         */
+        private double stdDev() {
+            return count == 0 ? 0 : Math.sqrt(m2 / count);
+        }
+    }
+
+    /**
+     * <p>
+     * Draws the recorded values of one event. The distribution parameters are worked out once
+     * when the sampler is made, not on every draw.
+     * </p>
+     * <p>
+     * Gaussian values come from Gaussian.next, a ziggurat: mostly one 64 bit draw and a table
+     * lookup per value.
+     * </p>
+     */
+    private abstract static class Sampler {
+        /**
+         * This method makes the sampler for an event: log-normal for continuous events,
+         * normal for discrete events.
+         *
+         * @param type  event type.
+         * @param stats mean and stdDev of the event.
+         * @return the sampler.
+         */
+        private static Sampler of(Type type, EventStats stats) {
+            return type == Type.C ? new ContinuousSampler(stats.mean, stats.stdDev) : new DiscreteSampler(stats.mean, stats.stdDev);
+        }
+
+        /**
+         * This method draws count values into out, stride apart, e.g. one event column of a day x event matrix.
+         *
+         * @param out    receives the values.
+         * @param offset index of the first value.
+         * @param stride distance between values.
+         * @param count  number of values.
+         * @param random random generator to draw from.
+         */
+        abstract void fill(double[] out, int offset, int stride, int count, SplittableRandom random);
     }
 
     /**
@@ -704,35 +881,187 @@ public class IDS {
      * To generate a number which follows log normal distribution by using Gaussian.
      * </p>
      * <p>
-     * nextGaussian() returns a random number from a Gaussian distribution with mean 0 and standard deviation 1. <br>
      * Following the exp(-0.5 * ((ln(x) - m) / s)^2) / (s * sqrt(2 * pi) * x) <br>
-     * taking euler's constant and raise it to the power of a random generated value with ess then adding the mu<br>
+     * raising e to the power of a Gaussian value scaled by ess then adding the mu <br>
+     * will generate a value which follows log-normal distribution, producing statistics <br>
+     * approximately consistent with given Stats.txt values. <br>
+     * Values are rounded to 2 decimal places, as continuous events are recorded. <br>
+     * </p>
+     */
+    private static final class ContinuousSampler extends Sampler {
+        private final double ess;
+        private final double mu;
+
+        private ContinuousSampler(double mean, double stdDev) {
+            ess = Math.log(1.0 + (stdDev * stdDev) / (mean * mean));
+            mu = Math.log(mean) - 0.5 * ess * ess;
+        }
+
+        @Override
+        void fill(double[] out, int offset, int stride, int count, SplittableRandom random) {
+            for (int i = 0, index = offset; i < count; i++, index += stride)
+                out[index] = Math.round(Math.exp(Gaussian.next(random) * ess + mu) * 100) / 100.0;
+        }
+    }
+
+    /**
+     * <p>
+     * To generate a number which follows normal distribution by using Gaussian.
+     * </p>
+     * <p>
+     * Scaling a Gaussian value with Standard Deviation then adding the mean <br>
      * will generate a value which follows normal distribution, producing statistics <br>
      * approximately consistent with given Stats.txt values. <br>
+     * Values are floored to integers and negative values are drawn again. <br>
      * </p>
-     *
-     * @param mean   mean of the distribution
-     * @param stdDev standard deviation of the distribution
-     * @return a random double value which follows log-normal distribution
      */
-    private static double generateC(double mean, double stdDev) {
-        double ess = Math.log(1.0 + (Math.pow(stdDev, 2) / Math.pow(mean, 2)));
-        double mu = Math.log(mean) - (0.5 * Math.pow(ess, 2));
-        double r;
-        do {
-            r = Math.pow(2.7182818284590452353602874713527, rand.nextGaussian() * ess + mu);
-        } while (r < 0);
-        return r;
+    private static final class DiscreteSampler extends Sampler {
+        private final double mean;
+        private final double stdDev;
+
+        private DiscreteSampler(double mean, double stdDev) {
+            this.mean = mean;
+            this.stdDev = stdDev;
+        }
+
+        @Override
+        void fill(double[] out, int offset, int stride, int count, SplittableRandom random) {
+            for (int i = 0, index = offset; i < count; i++, index += stride) {
+                double r;
+                do {
+                    r = Math.floor(Gaussian.next(random) * stdDev + mean);
+                } while (r < 0);
+                out[index] = r;
+            }
+        }
     }
 
-    private static void art() {
-        System.out.println("++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
-        System.out.println(" _____  _____     ____"); 
-        System.out.println("|_   _||  __ \\  / ___|         ");
-        System.out.println("  | |  | |  | || (___           ");
-        System.out.println("  | |  | |  | | \\___ \\        ");
-        System.out.println(" _| |_ | |__| | ____) |        CSCI 262, System Security");
-        System.out.println("|_____||_____/ |_____/         Email System Modeller & Intrusion Detection System.");
-        System.out.println("++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
+    /**
+     * <p>
+     * Standard normal values by the ziggurat method (Marsaglia and Tsang, 2000, as laid out in
+     * Doornik's ZIGNOR), 128 layers. SplittableRandom only has nextGaussian() from Java 17 on.
+     * </p>
+     * <p>
+     * One 64 bit draw picks a layer (low 7 bits) and a uniform in (-1, 1) (high 53 bits); about
+     * 98.8% of the time the point lies inside the layer's rectangle and is returned with one
+     * multiply. Only the rest needs exp() or, past R, the tail by Marsaglia's method.
+     * </p>
+     */
+    private static final class Gaussian {
+        private static final int LAYERS = 128;
+        private static final double R = 3.442619855899;
+        private static final double V = 9.91256303526217e-3;
+        private static final double[] x = new double[LAYERS + 1];
+        private static final double[] ratio = new double[LAYERS];
+
+        static {
+            double f = Math.exp(-0.5 * R * R);
+            x[0] = V / f;
+            x[1] = R;
+            x[LAYERS] = 0;
+            for (int i = 2; i < LAYERS; i++) {
+                x[i] = Math.sqrt(-2 * Math.log(V / x[i - 1] + f));
+                f = Math.exp(-0.5 * x[i] * x[i]);
+            }
+            for (int i = 0; i < LAYERS; i++) ratio[i] = x[i + 1] / x[i];
+        }
+
+        private static double next(SplittableRandom random) {
+            while (true) {
+                long bits = random.nextLong();
+                int layer = (int) bits & (LAYERS - 1);
+                double u = 2 * ((bits >>> 11) * 0x1.0p-53) - 1;
+
+                if (Math.abs(u) < ratio[layer]) return u * x[layer];
+                if (layer == 0) return tail(u < 0, random);
+
+                double value = u * x[layer];
+                double f0 = Math.exp(-0.5 * (x[layer] * x[layer] - value * value));
+                double f1 = Math.exp(-0.5 * (x[layer + 1] * x[layer + 1] - value * value));
+                if (f1 + random.nextDouble() * (f0 - f1) < 1.0) return value;
+            }
+        }
+
+        private static double tail(boolean negative, SplittableRandom random) {
+            double tx, ty;
+            do {
+                tx = Math.log(1 - random.nextDouble()) / R;
+                ty = Math.log(1 - random.nextDouble());
+            } while (-2 * ty < tx * tx);
+            return negative ? tx - R : R - tx;
+        }
+    }
+
+    /**
+     * <p>
+     * Writes baseLineData log files on a background thread, one at a time in the order they
+     * were submitted, so the engines never wait on the disk. Queued files are finished
+     * before the program exits, on every exit path.
+     * </p>
+     * <p>
+     * Log format: a header row of days, then one row per event, values padded to 7 characters.
+     * </p>
+     */
+    private static final class LogWriter {
+        private static final ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "log-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private static final ConcurrentLinkedQueue<Future<?>> pending = new ConcurrentLinkedQueue<>();
+
+        static {
+            // System.exit on an error path would otherwise stop the daemon writer halfway through a file
+            Runtime.getRuntime().addShutdownHook(new Thread(LogWriter::await, "log-flush"));
+        }
+
+        /**
+         * This method queues a log file to be written. The matrix must not change afterwards.
+         *
+         * @param file         log file to write.
+         * @param baseLineData day x event matrix to log.
+         * @param dayCount     number of days in the matrix.
+         */
+        private static void submit(String file, double[] baseLineData, int dayCount) {
+            System.out.println(GREEN + "[+] Log file is being generated to " + file + " in the background!" + RESET);
+            pending.add(executor.submit(() -> {
+                try {
+                    write(file, baseLineData, dayCount);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+
+        /**
+         * This method waits for every queued log file to be written. It is called before the
+         * normal exit and again from a shutdown hook, so the logs are complete however the
+         * program exits.
+         */
+        private static void await() {
+            for (Future<?> future; (future = pending.poll()) != null; ) {
+                try {
+                    future.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private static void write(String file, double[] baseLineData, int dayCount) throws IOException {
+            BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+            bw.write(String.format("%-20s", "Event(s)") + ": ");
+            for (int day = 1; day <= dayCount; day++)
+                bw.write(String.format("%-7s", "D" + day) + " ");
+            bw.newLine();
+            for (int event = 0; event < eventMonitor; event++) {
+                bw.write(String.format("%-20s", events[event].name) + ": ");
+                for (int day = 0; day < dayCount; day++)
+                    bw.write(String.format("%-7s", events[event].format(baseLineData[day * eventMonitor + event])) + " ");
+                bw.newLine();
+            }
+            bw.flush();
+            bw.close();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,126 @@
+package bench;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static bench.Internals.getter;
+import static bench.Internals.method;
+import static bench.Internals.setter;
+import static bench.Internals.type;
+
+/**
+ * activityEngine, analysisEngine and writing the baseLineData log for every requested
+ * events x days size, with the engines' console output discarded.
+ * <p>
+ * No size is skipped. A size whose matrix cannot be allocated fails its setup with the
+ * reason: 50000 x 1000000 is more values than one double[] holds, and 500 x 1000000 and
+ * 50000 x 10000 need about 8 GB of heap (-jvmArgs -Xmx10g). Pick sizes with -p events=N -p days=N.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdsEngineBenchmark {
+    private static final MethodHandle activityEngine = method("IDS", "activityEngine", String.class, type("[LIDS$EventStats;"));
+    private static final MethodHandle analysisEngine = method("IDS", "analysisEngine", type("IDS$Simulation"), String.class, String.class);
+    private static final MethodHandle write = method("IDS$LogWriter", "write", String.class, double[].class, int.class);
+    private static final MethodHandle data = getter("IDS$Simulation", "data");
+    private static final MethodHandle alertDailyCounter = getter("IDS", "alertDailyCounter");
+    private static final MethodHandle logging = setter("IDS", "logging");
+    private static final MethodHandle random = setter("IDS", "random");
+    private static final MethodHandle pool = setter("IDS", "pool");
+
+    @Param({"5", "500", "50000"})
+    private int events;
+
+    @Param({"10", "10000", "1000000"})
+    private int days;
+
+    @Param({"1"})
+    private int threads;
+
+    private final PrintStream out = System.out;
+    private ForkJoinPool workers;
+    private Object stats;
+    private Object simulation;
+    private File dir;
+    private String log, totals, report;
+
+    @Setup
+    public void setup() throws Throwable {
+        long cells = (long) events * days;
+        if (cells > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException(String.format("events x days = %d values, more than one double[] matrix holds", cells));
+        // The simulated matrix and the matrix being replaced
+        long heap = 2 * 8 * cells;
+        if (heap > Runtime.getRuntime().maxMemory())
+            throw new IllegalStateException(String.format("events x days = %d values need about %d MB of heap, have %d MB (-jvmArgs -Xmx...)",
+                    cells, heap >> 20, Runtime.getRuntime().maxMemory() >> 20));
+
+        stats = IdsSupport.model(events, days);
+        logging.invoke(false);
+        random.invoke(new SplittableRandom(1));
+        if (threads > 1) pool.invoke(workers = new ForkJoinPool(threads));
+
+        dir = Files.createTempDirectory("ids-bench").toFile();
+        log = new File(dir, "baseLineData.txt").getPath();
+        totals = new File(dir, "dayTotals.txt").getPath();
+        report = new File(dir, "baseLineStats.txt").getPath();
+
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+        simulation = activityEngine.invoke(log, stats);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(out);
+        if (workers != null) workers.shutdown();
+        for (File file : new File[]{new File(log), new File(totals), new File(report), dir}) file.delete();
+    }
+
+    @Benchmark
+    public Object activityEngine() throws Throwable {
+        return activityEngine.invoke(log, stats);
+    }
+
+    @Benchmark
+    public Object analysisEngine() throws Throwable {
+        analysisEngine.invoke(simulation, totals, report);
+        return alertDailyCounter.invoke();
+    }
+
+    @Benchmark
+    public long log() throws Throwable {
+        write.invoke(log, (double[]) data.invoke(simulation), days);
+        return new File(log).length();
+    }
+}
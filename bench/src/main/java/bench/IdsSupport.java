@@ -0,0 +1,70 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Array;
+
+import static bench.Internals.constructor;
+import static bench.Internals.method;
+import static bench.Internals.setter;
+import static bench.Internals.type;
+
+/**
+ * IDS state shared by the IDS benchmarks: a synthetic model of events and their statistics.
+ * <p>
+ * This sets IDS's statics the way init and filter do. Every benchmark and parameter
+ * combination runs in its own forked JVM, so one benchmark never sees the statics another
+ * one left behind.
+ */
+final class IdsSupport {
+    private static final MethodHandle newEventSpec = constructor("IDS$EventSpec", String.class, type("IDS$Type"), double.class, double.class, double.class);
+    private static final MethodHandle newEventStats = constructor("IDS$EventStats", String.class, double.class, double.class);
+    private static final MethodHandle sampler = method("IDS$Sampler", "of", type("IDS$Type"), type("IDS$EventStats"));
+    private static final MethodHandle eventMonitor = setter("IDS", "eventMonitor");
+    private static final MethodHandle statsMonitor = setter("IDS", "statsMonitor");
+    private static final MethodHandle days = setter("IDS", "days");
+    private static final MethodHandle events = setter("IDS", "events");
+    private static final MethodHandle baseLineStats = setter("IDS", "baseLineStats");
+
+    private IdsSupport() {
+    }
+
+    /**
+     * @param name C or D.
+     * @return the IDS.Type constant.
+     */
+    static Object eventType(String name) {
+        for (Object constant : type("IDS$Type").getEnumConstants()) {
+            if (constant.toString().equals(name)) return constant;
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    static Object sampler(String type, double mean, double stdDev) throws Throwable {
+        return sampler.invoke(eventType(type), newEventStats.invoke(type, mean, stdDev));
+    }
+
+    /**
+     * This method sets up a model of alternating discrete and continuous events, in the same
+     * form filter() leaves events and baseLineStats.
+     *
+     * @param eventCount number of monitored events.
+     * @param dayCount   number of days to simulate.
+     * @return the EventStats[] of the events, as baseLineStats.
+     */
+    static Object model(int eventCount, int dayCount) throws Throwable {
+        Object specs = Array.newInstance(type("IDS$EventSpec"), eventCount);
+        Object stats = Array.newInstance(type("IDS$EventStats"), eventCount);
+
+        for (int i = 0; i < eventCount; i++) {
+            boolean continuous = i % 2 == 1;
+            Array.set(specs, i, newEventSpec.invoke("Event" + i, eventType(continuous ? "C" : "D"), 0.0, continuous ? 1440.0 : 20.0, 1.0 + i % 5));
+            Array.set(stats, i, newEventStats.invoke("Event" + i, continuous ? 150.5 : 4.0, continuous ? 25.00 : 1.5));
+        }
+        eventMonitor.invoke(eventCount);
+        statsMonitor.invoke(eventCount);
+        days.invoke(dayCount);
+        events.invoke(specs);
+        baseLineStats.invoke(stats);
+        return stats;
+    }
+}
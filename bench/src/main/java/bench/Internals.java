@@ -0,0 +1,69 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.AccessibleObject;
+
+/**
+ * Handles on the private members of Rainbow and IDS.
+ * <p>
+ * Both programs are single source files in the default package, which a benchmark (JMH only
+ * runs benchmarks in a named package) cannot import, and their members stay private so the
+ * programs are run exactly as they ship. The benchmarks keep these handles in static final
+ * fields, which the JIT treats as constants and inlines like direct calls.
+ */
+final class Internals {
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    private Internals() {
+    }
+
+    /**
+     * @param name binary name of a default package class or array, e.g. Rainbow$Wordlist or [LIDS$EventStats;.
+     * @return the class.
+     */
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static MethodHandle method(String owner, String name, Class<?>... parameters) {
+        try {
+            return lookup.unreflect(open(type(owner).getDeclaredMethod(name, parameters)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static MethodHandle constructor(String owner, Class<?>... parameters) {
+        try {
+            return lookup.unreflectConstructor(open(type(owner).getDeclaredConstructor(parameters)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static MethodHandle getter(String owner, String name) {
+        try {
+            return lookup.unreflectGetter(open(type(owner).getDeclaredField(name)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static MethodHandle setter(String owner, String name) {
+        try {
+            return lookup.unreflectSetter(open(type(owner).getDeclaredField(name)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static <T extends AccessibleObject> T open(T member) {
+        member.setAccessible(true);
+        return member;
+    }
+}
@@ -0,0 +1,82 @@
+package bench;
+
+import java.lang.reflect.Array;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static bench.RainbowSupport.crack;
+
+/**
+ * The lookup done by attack, for hashes of random wordlist entries (hit) and of passwords
+ * that are not in the wordlist (miss), on these tables:
+ * <p>
+ * plain: chain length 5; filter: with a 10 bits per chain endpoint filter; t64: chain length 64,
+ * where the t^2 hashes of a classic lookup show; dp6: distinguished points with 6 bits;
+ * shards4: four shards searched at once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RainbowAttackBenchmark {
+    @Param({"1000", "100000"})
+    private int words;
+
+    @Param({"plain", "filter", "t64", "dp6", "shards4"})
+    private String table;
+
+    private final String[] probes = new String[1024];
+    private final String[] misses = new String[1024];
+    private int next;
+
+    @Setup
+    public void setup() throws Throwable {
+        RainbowSupport.wordlist(words);
+        if (table.equals("t64")) {
+            RainbowSupport.chainLength.invoke(64);
+        } else if (table.equals("dp6")) {
+            RainbowSupport.dpBits.invoke(6);
+            RainbowSupport.chainLength.invoke(8 << 6);
+            RainbowSupport.reduction.invoke((int) RainbowSupport.uniform.invoke());
+            RainbowSupport.endpoints.invoke(RainbowSupport.newEndpointSet.invoke());
+        }
+
+        Object shards = RainbowSupport.shardArray(table.equals("shards4") ? 4 : 1);
+        for (int i = 0; i < Array.getLength(shards); i++) {
+            RainbowSupport.shard.invoke(i);
+            Object index = RainbowSupport.buildTable(1, 1);
+            Object filter = table.equals("filter") ? RainbowSupport.filter.invoke(index, 10) : null;
+            Array.set(shards, i, RainbowSupport.newShard.invoke(i, index, filter));
+        }
+        RainbowSupport.shard.invoke(0);
+        RainbowSupport.shards.invoke(shards);
+
+        Random random = new Random(262);
+        for (int i = 0; i < probes.length; i++) probes[i] = RainbowSupport.md5("password" + random.nextInt(words));
+        for (int i = 0; i < misses.length; i++) misses[i] = RainbowSupport.md5("miss" + i);
+    }
+
+    @Benchmark
+    public String hit() throws Throwable {
+        return (String) crack.invoke(probes[next++ & 1023]);
+    }
+
+    @Benchmark
+    public String miss() throws Throwable {
+        return (String) crack.invoke(misses[next++ & 1023]);
+    }
+}
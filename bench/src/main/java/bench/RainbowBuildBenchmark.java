@@ -0,0 +1,46 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The table build done by init: serial, with --lanes and with --threads (-p threads=N for
+ * the machine's core count).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RainbowBuildBenchmark {
+    @Param({"1000", "100000"})
+    private int words;
+
+    @Param({"1"})
+    private int threads;
+
+    @Param({"1", "8", "256"})
+    private int lanes;
+
+    @Setup
+    public void setup() throws Throwable {
+        RainbowSupport.wordlist(words);
+    }
+
+    @Benchmark
+    public Object build() throws Throwable {
+        return RainbowSupport.buildTable(threads, lanes);
+    }
+}
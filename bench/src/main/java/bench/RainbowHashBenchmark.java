@@ -0,0 +1,140 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static bench.Internals.constructor;
+import static bench.Internals.getter;
+import static bench.Internals.method;
+import static bench.RainbowSupport.passwordList;
+
+/**
+ * Rainbow's hash, reduction and chain step on the raw digest pipeline, each --hash algorithm,
+ * and a chain step on the original BigInteger and hexadecimal String pipeline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RainbowHashBenchmark {
+    private static final MethodHandle hash = method("Rainbow", "hash", int.class, byte[].class);
+    private static final MethodHandle reduce = method("Rainbow", "reduce", byte[].class, int.class, int.class);
+    private static final MethodHandle algorithm = method("Rainbow", "algorithm", String.class);
+    private static final MethodHandle algorithmHash = method("Rainbow$HashAlgorithm", "hash", byte[].class, int.class, int.class, byte[].class);
+    private static final MethodHandle bytes = getter("Rainbow$Wordlist", "bytes");
+    private static final MethodHandle offset = method("Rainbow$Wordlist", "offset", int.class);
+    private static final MethodHandle length = method("Rainbow$Wordlist", "length", int.class);
+    private static final MethodHandle newMd5Lanes = constructor("Rainbow$Md5Lanes", int.class);
+    private static final MethodHandle lanesHash = method("Rainbow$Md5Lanes", "hash", int[].class, int.class);
+    private static final MethodHandle lanesHi = getter("Rainbow$Md5Lanes", "hi");
+
+    @Param({"1000", "100000"})
+    private int words;
+
+    private final byte[] digest = new byte[32];
+    private final byte[][] digests = new byte[1024][32];
+    private Object list;
+    private int next;
+    private int index;
+
+    @Setup
+    public void setup() throws Throwable {
+        RainbowSupport.wordlist(words);
+        list = passwordList.invoke();
+        for (int i = 0; i < digests.length; i++) hash.invoke(i % words, digests[i]);
+    }
+
+    @Benchmark
+    public byte[] hash() throws Throwable {
+        hash.invoke(next++ % words, digest);
+        return digest;
+    }
+
+    @Benchmark
+    public int reduce() throws Throwable {
+        int i = next++;
+        return (int) reduce.invoke(digests[i & 1023], i & 3, 0);
+    }
+
+    @Benchmark
+    public int chainStep() throws Throwable {
+        hash.invoke(index, digest);
+        return index = (int) reduce.invoke(digest, 0, 0);
+    }
+
+    /**
+     * The chain step as the original program took it: MD5 of the password String, the digest
+     * as a BigInteger printed to hexadecimal, zero padded, parsed back and reduced mod the wordlist size.
+     */
+    @Benchmark
+    public int chainStepBigInteger() throws Throwable {
+        String password = (String) RainbowSupport.get.invoke(list, index);
+        BigInteger hash = new BigInteger(1, MessageDigest.getInstance("MD5").digest(password.getBytes(StandardCharsets.UTF_8)));
+        String hex = hash.toString(16);
+        while (hex.length() < 32) hex = "0" + hex;
+        return index = new BigInteger(hex, 16).mod(BigInteger.valueOf(words)).intValue();
+    }
+
+    @Benchmark
+    public byte[] algorithm(Algorithm algorithm) throws Throwable {
+        int i = next++ % words;
+        algorithmHash.invoke(algorithm.hash, bytes.invoke(list), (int) offset.invoke(list, i), (int) length.invoke(list, i), digest);
+        return digest;
+    }
+
+    /**
+     * One op hashes one wordlist entry in each of the lanes.
+     */
+    @Benchmark
+    public long md5Lanes(Lanes lanes) throws Throwable {
+        int first = next++ * lanes.width;
+        for (int lane = 0; lane < lanes.width; lane++) lanes.indexes[lane] = (first + lane) % words;
+        lanesHash.invoke(lanes.engine, lanes.indexes, lanes.width);
+        return ((long[]) lanesHi.invoke(lanes.engine))[0];
+    }
+
+    @State(Scope.Thread)
+    public static class Algorithm {
+        @Param({"md5", "sha1", "sha256", "ntlm"})
+        private String name;
+
+        private Object hash;
+
+        @Setup
+        public void setup() throws Throwable {
+            hash = algorithm.invoke(name);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Lanes {
+        @Param({"8", "16", "256"})
+        private int width;
+
+        private Object engine;
+        private int[] indexes;
+
+        @Setup
+        public void setup() throws Throwable {
+            engine = newMd5Lanes.invoke(width);
+            indexes = new int[width];
+        }
+    }
+}
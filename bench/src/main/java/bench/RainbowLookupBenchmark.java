@@ -0,0 +1,115 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static bench.Internals.constructor;
+import static bench.Internals.method;
+import static bench.Internals.type;
+
+/**
+ * Endpoint lookups on a synthetic table of random final hashes: a linear scan of a
+ * LinkedHashMap (the original sortedRainbowHash), the sorted endpoint index and the
+ * compressed index. Half of the probes are final hashes in the table, half are not.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RainbowLookupBenchmark {
+    private static final MethodHandle toHex = method("Rainbow", "toHex", long.class, long.class);
+    private static final MethodHandle newChainBuffer = constructor("Rainbow$ChainBuffer");
+    private static final MethodHandle add = method("Rainbow$ChainBuffer", "add", long.class, long.class, int.class);
+    private static final MethodHandle toIndex = method("Rainbow$ChainBuffer", "toIndex");
+    private static final MethodHandle find = method("Rainbow$ChainIndex", "find", long.class, long.class);
+    private static final MethodHandle compact = method("Rainbow$CompactIndex", "of", type("Rainbow$ChainIndex"), int.class, int.class);
+    private static final MethodHandle hiMask = method("Rainbow$ChainIndex", "hiMask");
+    private static final MethodHandle bytesPerChain = method("Rainbow$CompactIndex", "bytesPerChain");
+
+    @State(Scope.Thread)
+    public static class Table {
+        @Param({"1000000"})
+        private int chains;
+
+        private final LinkedHashMap<String, String> sorted = new LinkedHashMap<>();
+        private final String[] probes = new String[1024];
+        private final long[] hi = new long[probes.length], lo = new long[probes.length];
+        private Object index;
+        private int next;
+
+        @Setup
+        public void setup() throws Throwable {
+            Random random = new Random(262);
+            HashMap<String, String> hashes = new HashMap<>();
+            Object buffer = newChainBuffer.invoke();
+
+            for (int i = 0; i < chains; i++) {
+                long hi = random.nextLong(), lo = random.nextLong();
+                hashes.put("p" + i, (String) toHex.invoke(hi, lo));
+                add.invoke(buffer, hi, lo, i);
+            }
+            hashes.entrySet().stream().sorted(Map.Entry.comparingByValue()).forEachOrdered(x -> sorted.put(x.getKey(), x.getValue()));
+            index = toIndex.invoke(buffer);
+
+            for (int i = 0; i < probes.length; i++) {
+                probes[i] = i % 2 == 0 ? hashes.get("p" + random.nextInt(chains)) : (String) toHex.invoke(random.nextLong(), random.nextLong());
+                hi[i] = Long.parseUnsignedLong(probes[i].substring(0, 16), 16);
+                lo[i] = Long.parseUnsignedLong(probes[i].substring(16), 16);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Compact {
+        @Param({"24", "32"})
+        private int bits;
+
+        private Object index;
+        private long mask;
+
+        @Setup
+        public void setup(Table table) throws Throwable {
+            index = compact.invoke(table.index, bits, 0);
+            mask = (long) hiMask.invoke(index);
+            System.out.printf("%d bits: %.2f bytes per chain%n", bits, (double) bytesPerChain.invoke(index));
+        }
+    }
+
+    @Benchmark
+    public int linearScan(Table table) {
+        String probe = table.probes[table.next++ & 1023];
+        for (Map.Entry<String, String> entry : table.sorted.entrySet()) {
+            if (entry.getValue().equals(probe)) return 1;
+        }
+        return 0;
+    }
+
+    @Benchmark
+    public long endpointIndex(Table table) throws Throwable {
+        int i = table.next++ & 1023;
+        return (long) find.invoke(table.index, table.hi[i], table.lo[i]);
+    }
+
+    @Benchmark
+    public long compactIndex(Table table, Compact compact) throws Throwable {
+        int i = table.next++ & 1023;
+        return (long) find.invoke(compact.index, table.hi[i] & compact.mask, 0L);
+    }
+}
@@ -0,0 +1,103 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static bench.Internals.constructor;
+import static bench.Internals.getter;
+import static bench.Internals.method;
+import static bench.Internals.setter;
+import static bench.Internals.type;
+
+/**
+ * Rainbow state shared by the Rainbow benchmarks: a synthetic wordlist and tables built from it.
+ * <p>
+ * This sets Rainbow's statics the way main does. Every benchmark and parameter combination
+ * runs in its own forked JVM, so one benchmark never sees the statics another one left behind.
+ */
+final class RainbowSupport {
+    static final MethodHandle passwordList = getter("Rainbow", "passwordList");
+    static final MethodHandle add = method("Rainbow$Wordlist", "add", byte[].class, int.class);
+    static final MethodHandle get = method("Rainbow$Wordlist", "get", int.class);
+    static final MethodHandle loadPasswords = method("Rainbow", "loadPasswords");
+    static final MethodHandle keyspace = getter("Rainbow", "keyspace");
+    static final MethodHandle threads = setter("Rainbow", "threads");
+    static final MethodHandle lanes = setter("Rainbow", "lanes");
+    static final MethodHandle chainLength = setter("Rainbow", "chainLength");
+    static final MethodHandle dpBits = setter("Rainbow", "dpBits");
+    static final MethodHandle reduction = setter("Rainbow", "reduction");
+    static final MethodHandle endpoints = setter("Rainbow", "endpoints");
+    static final MethodHandle shards = setter("Rainbow", "shards");
+    static final MethodHandle shard = setter("Rainbow", "shard");
+    static final MethodHandle uniform = getter("Rainbow$MappedTable", "REDUCTION_UNIFORM");
+    static final MethodHandle newEndpointSet = constructor("Rainbow$EndpointSet");
+    static final MethodHandle newShard = constructor("Rainbow$Shard", int.class, type("Rainbow$ChainIndex"), type("Rainbow$EndpointFilter"));
+    static final MethodHandle filter = method("Rainbow$EndpointFilter", "of", type("Rainbow$ChainIndex"), int.class);
+    static final MethodHandle crack = method("Rainbow", "crack", String.class);
+    private static final MethodHandle newCoverageSet = constructor("Rainbow$CoverageSet", int.class);
+    private static final MethodHandle newChainBuffer = constructor("Rainbow$ChainBuffer");
+    private static final MethodHandle buildSerial = method("Rainbow", "buildSerial", type("Rainbow$CoverageSet"), type("Rainbow$ChainBuffer"));
+    private static final MethodHandle buildParallel = method("Rainbow", "buildParallel", type("Rainbow$CoverageSet"), type("Rainbow$ChainBuffer"));
+    private static final MethodHandle toIndex = method("Rainbow$ChainBuffer", "toIndex");
+
+    private RainbowSupport() {
+    }
+
+    /**
+     * This method fills the (empty) passwordList with password0, password1, ... and computes the keyspace.
+     *
+     * @param words size of the synthetic wordlist.
+     */
+    static void wordlist(int words) throws Throwable {
+        Object list = passwordList.invoke();
+        for (int i = 0; i < words; i++) {
+            byte[] password = ("password" + i).getBytes(StandardCharsets.UTF_8);
+            add.invoke(list, password, password.length);
+        }
+        loadPasswords.invoke();
+    }
+
+    /**
+     * This method builds a table over the wordlist as init does, serial or on a pool.
+     *
+     * @param workers --threads.
+     * @param width   --lanes.
+     * @return the table, an EndpointIndex.
+     */
+    static Object buildTable(int workers, int width) throws Throwable {
+        Object marked = newCoverageSet.invoke((int) keyspace.invoke());
+        Object chains = newChainBuffer.invoke();
+
+        threads.invoke(workers);
+        lanes.invoke(width);
+        if (workers > 1 || width > 1) buildParallel.invoke(marked, chains);
+        else buildSerial.invoke(marked, chains);
+        return toIndex.invoke(chains);
+    }
+
+    /**
+     * @param count number of shards.
+     * @return an empty Shard[] to pass to the shards setter.
+     */
+    static Object shardArray(int count) {
+        return Array.newInstance(type("Rainbow$Shard"), count);
+    }
+
+    /**
+     * @param password a password.
+     * @return its MD5 digest as lower case hexadecimal, as a user types it in.
+     */
+    static String md5(String password) {
+        try {
+            StringBuilder hex = new StringBuilder(32);
+            for (byte b : MessageDigest.getInstance("MD5").digest(password.getBytes(StandardCharsets.UTF_8)))
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}